@@ -1,44 +1,204 @@
 package org.egreen.richdesktop.ui;
 
+import org.egreen.richdesktop.ui.bridge.BridgeMetrics;
+import org.egreen.richdesktop.ui.resource.AssetPack;
+import org.egreen.richdesktop.ui.resource.PackageJson;
+import org.egreen.richdesktop.ui.resource.WebResources;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
+import org.egreen.richdesktop.ui.server.CacheControlHandler;
+import org.egreen.richdesktop.ui.server.CachedResourceHandler;
+import org.egreen.richdesktop.ui.server.LocalServerConfig;
+import org.egreen.richdesktop.ui.server.RequestTimingHandler;
+import org.egreen.richdesktop.ui.server.RpcHandler;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.resource.Resource;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by dewmal on 11/27/14.
+ * <p/>
+ * Serves the web-app over HTTP. {@link #start()} blocks until the connector
+ * is bound; other threads can wait for that with {@link #awaitReady}. With
+ * port 0 (the default) Jetty picks a free port, see {@link #getPort()}.
+ * If the distribution ships an {@link AssetPack}, the web-app is served
+ * from it alone.
+ * <p/>
+ * JSON-RPC methods registered with {@link #getRpcRegistry()} are served
+ * under {@value #API_PATH}, see {@link RpcHandler}. Request timings go to
+ * the {@link WaterfallRecorder}, whose report is the "waterfall.get" method.
  */
 public class LocalServer {
+    public static final String API_PATH = "/api";
+
+    private final LocalServerConfig config;
+    private final AssetPack pack;
+    private final RpcRegistry rpcRegistry = new RpcRegistry();
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private volatile Server server;
+    private volatile ServerConnector connector;
+    private volatile Exception failure;
+
+    public LocalServer(LocalServerConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param pack the pack to serve, or <code>null</code> to serve the
+     *             web-app directory
+     */
+    public LocalServer(LocalServerConfig config, AssetPack pack) {
+        this.config = config;
+        this.pack = pack;
+        rpcRegistry.register("waterfall.get", WaterfallRecorder.getInstance().createRpcMethod());
+        rpcRegistry.register("bridge.metrics", BridgeMetrics.getInstance().createRpcMethod());
+    }
+
+    /**
+     * Server with the settings of the web-app's package.json.
+     */
+    public static LocalServer create() throws IOException {
+        // thread pool and connector settings, from the "server" section of package.json
+        String json = PackageJson.read();
+        LocalServerConfig config = json != null ? LocalServerConfig.parse(json) : new LocalServerConfig();
+        return new LocalServer(config, AssetPack.findDefault());
+    }
+
     public static void mainRunServer() throws Exception {
+        LocalServer localServer = create();
+        localServer.start();
+        System.err.println(localServer.server.dump());
+        localServer.server.join();
+    }
+
+    /**
+     * Build and start the server. Readiness is signalled in any case, so
+     * {@link #awaitReady} reports a failure instead of waiting for it.
+     */
+    public void start() throws Exception {
+        try {
+            Server server = new Server(config.createThreadPool());
+            ServerConnector connector = new ServerConnector(server, config.getAcceptors(), config.getSelectors());
+            connector.setHost(config.getHost());
+            connector.setPort(config.getPort());
+            connector.setIdleTimeout(config.getIdleTimeout());
+            server.setConnectors(new Connector[] { connector });
+            ContextHandler context = new ContextHandler();
+            context.setContextPath("/");
+            context.setHandler(pack != null ? new CachedResourceHandler(pack) : createDirectoryHandler());
+            ContextHandler api = new ContextHandler();
+            api.setContextPath(API_PATH);
+            api.setAllowNullPathInfo(true);
+            api.setHandler(new RpcHandler(rpcRegistry));
+            ContextHandlerCollection contexts = new ContextHandlerCollection();
+            contexts.setHandlers(new Handler[] { api, context });
+            server.setHandler(new RequestTimingHandler(new CacheControlHandler(contexts),
+                                                       WaterfallRecorder.getInstance()));
+            server.start();
+
+            this.server = server;
+            this.connector = connector;
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            ready.countDown();
+        }
+    }
+
+    private static Handler createDirectoryHandler() throws IOException {
+        // content-hashed copy of ./web-app, see AssetFingerprinter; the
+        // cache is shared with the app:// scheme
+        WebResources resources = WebResources.getDefault();
+        File webApp = resources.getRoot();
+        System.out.println(webApp.getAbsolutePath());
+
+        // resources are served from memory, ResourceHandler only streams the
+        // files, which are too large to be held there
+        ResourceHandler rh = new ResourceHandler();
+        rh.setBaseResource(Resource.newResource(webApp.getPath()));
+        rh.setEtags(true);
+        HandlerList resourceHandlers = new HandlerList();
+        resourceHandlers.setHandlers(new Handler[] { new CachedResourceHandler(resources), rh });
+        return resourceHandlers;
+    }
+
+    /**
+     * Methods callable by the web-app through {@value #API_PATH}. They can be
+     * registered before or after the server is started.
+     */
+    public RpcRegistry getRpcRegistry() {
+        return rpcRegistry;
+    }
+
+    /**
+     * Start the server on a daemon thread.
+     */
+    public void startInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "LocalServer-start");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wait until the server accepts connections.
+     *
+     * @return the bound port
+     * @throws TimeoutException if the server didn't start in time
+     * @throws IOException      if the server failed to start
+     */
+    public int awaitReady(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException, IOException {
+        if (!ready.await(timeout, unit)) {
+            throw new TimeoutException("LocalServer didn't start within " + unit.toMillis(timeout) + "ms");
+        }
+        if (failure != null) {
+            throw new IOException("LocalServer failed to start", failure);
+        }
+        return getPort();
+    }
+
+    /**
+     * @return the bound port, or -1 if the server isn't started
+     */
+    public int getPort() {
+        ServerConnector connector = this.connector;
+        return connector != null ? connector.getLocalPort() : -1;
+    }
+
+    /**
+     * @return base URL of the web-app, e.g. http://127.0.0.1:41234/
+     */
+    public String getBaseUrl() {
+        return "http://" + config.getHost() + ":" + getPort() + "/";
+    }
 
-        System.out.println(new File("./web-app").getAbsolutePath());
-
-        String fileLocation="./web-app";
-        Server server = new Server();
-        ServerConnector connector = new ServerConnector(server);
-        connector.setPort(8090);
-        server.setConnectors(new Connector[] { connector });
-        ContextHandler context0 = new ContextHandler();
-        context0.setContextPath("/");
-        ResourceHandler rh0 = new ResourceHandler();
-        rh0.setBaseResource(Resource.newResource(fileLocation));
-        context0.setHandler(rh0);
-        ContextHandler context1 = new ContextHandler();
-        context1.setContextPath("/");
-        ResourceHandler rh1 = new ResourceHandler();
-        rh1.setBaseResource(Resource.newResource(fileLocation));
-        context1.setHandler(rh1);
-        ContextHandlerCollection contexts = new ContextHandlerCollection();
-        contexts.setHandlers(new Handler[] { context0, context1 });
-        server.setHandler(contexts);
-        server.start();
-        System.err.println(server.dump());
-        server.join();
+    public void stop() throws Exception {
+        Server server = this.server;
+        if (server != null) {
+            server.stop();
+        }
     }
 }
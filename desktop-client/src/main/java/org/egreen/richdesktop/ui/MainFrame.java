@@ -6,15 +6,37 @@ package org.egreen.richdesktop.ui;
 
 import org.cef.CefApp;
 import org.cef.CefClient;
+import org.cef.CefSettings;
 import org.cef.OS;
 import org.cef.browser.CefBrowser;
+import org.cef.browser.CefMessageRouter;
+import org.cef.browser.CefMessageRouter.CefMessageRouterConfig;
+import org.cef.handler.CefLoadHandler;
+import org.egreen.richdesktop.ui.bridge.BridgeMetrics;
+import org.egreen.richdesktop.ui.bridge.BridgeRpcRouter;
+import org.egreen.richdesktop.ui.bridge.EventStreamRouter;
+import org.egreen.richdesktop.ui.bridge.InstrumentedQueryHandler;
+import org.egreen.richdesktop.ui.bridge.TrustedOrigins;
+import org.egreen.richdesktop.ui.dialog.WaterfallDialog;
+import org.egreen.richdesktop.ui.handler.AppHandler;
+import org.egreen.richdesktop.ui.handler.AppSchemeHandler;
+import org.egreen.richdesktop.ui.handler.ClientSchemeHandler;
+import org.egreen.richdesktop.ui.handler.LoadHandler;
+import org.egreen.richdesktop.ui.handler.MessageRouterHandler;
+import org.egreen.richdesktop.ui.handler.MessageRouterHandlerEx;
+import org.egreen.richdesktop.ui.handler.RequestHandler;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 
 import static java.awt.Toolkit.getDefaultToolkit;
 
@@ -24,6 +46,10 @@ public class MainFrame extends JFrame {
     private final CefClient  client_;
     private final CefBrowser browser_;
     private final Component  browerUI_;
+    private final RpcRegistry bridgeRegistry_;
+    private final EventStreamRouter eventStreams_;
+
+    private static CefApp    initializedApp_;
 
     /**
      * To display a simple browser window, it suffices completely to create an
@@ -33,15 +59,20 @@ public class MainFrame extends JFrame {
      * way to the browser UI.
      */
     public MainFrame(String startURL, boolean useOSR, boolean isTransparent) {
-        // (1) The entry point to JCEF is always the class CefApp. There is only one
-        //     instance per application and therefore you have to call the method
-        //     "getInstance()" instead of a CTOR.
-        //
-        //     CefApp is responsible for the global CEF context. It loads all
-        //     required native libraries, initializes CEF accordingly, starts a
-        //     background task to handle CEF's message loop and takes care of
-        //     shutting down CEF after disposing it.
-        cefApp_ = CefApp.getInstance();
+        this(new String[0], startURL, useOSR, isTransparent);
+    }
+
+    public MainFrame(String[] args, String startURL, boolean useOSR, boolean isTransparent) {
+        this(args, startURL, useOSR, isTransparent, null);
+    }
+
+    /**
+     * @param loadHandler gets the load start and end events of the browser,
+     *                    from the very first page load on; may be <code>null</code>
+     */
+    public MainFrame(String[] args, String startURL, boolean useOSR, boolean isTransparent,
+                     CefLoadHandler loadHandler) {
+        cefApp_ = initializeCef(args);
 
         // (2) JCEF can handle one to many browser instances simultaneous. These
         //     browser instances are logically grouped together by an instance of
@@ -58,6 +89,28 @@ public class MainFrame extends JFrame {
         //     behavior of the browser. See tests.detailed.MainFrame for an example
         //     of how to use these handlers.
         client_ = cefApp_.createClient();
+        //     The request and load handlers also record the page load
+        //     waterfall, see WaterfallRecorder.
+        client_.addRequestHandler(new RequestHandler(this));
+        client_.addLoadHandler(new LoadHandler(loadHandler));
+        //     JavaScript calls Java methods by name through window.cefQuery,
+        //     and subscribes to events pushed by Java, see BridgeRpcRouter,
+        //     EventStreamRouter and the web-app's bridge.js. All queries
+        //     are recorded in BridgeMetrics. Only the application's own
+        //     pages may use the bridge, see TrustedOrigins.
+        TrustedOrigins.getInstance().allow(AppSchemeHandler.startUrl);
+        TrustedOrigins.getInstance().allow(ClientSchemeHandler.scheme + "://" + ClientSchemeHandler.domain + "/");
+        bridgeRegistry_ = new RpcRegistry();
+        MessageRouterHandler.registerMethods(bridgeRegistry_);
+        new MessageRouterHandlerEx(client_).registerMethods(bridgeRegistry_);
+        eventStreams_ = new EventStreamRouter();
+        BridgeMetrics metrics = BridgeMetrics.getInstance();
+        BridgeRpcRouter rpcRouter = new BridgeRpcRouter(bridgeRegistry_);
+        rpcRouter.setMetrics(metrics);
+        CefMessageRouter router = CefMessageRouter.create(new CefMessageRouterConfig(),
+                                                          new InstrumentedQueryHandler(rpcRouter, metrics));
+        router.addHandler(new InstrumentedQueryHandler(eventStreams_, metrics), false);
+        client_.addMessageRouter(router);
 
         // (3) One CefBrowser instance is responsible to control what you'll see on
         //     the UI component of the instance. It can be displayed off-screen
@@ -95,18 +148,72 @@ public class MainFrame extends JFrame {
         setSize(screen);
         setVisible(true);
 
+        // Ctrl+Shift+W shows the waterfall of the recent page loads
+        getRootPane().registerKeyboardAction(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                new WaterfallDialog(MainFrame.this, WaterfallRecorder.getInstance()).setVisible(true);
+            }
+        }, KeyStroke.getKeyStroke(KeyEvent.VK_W, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK),
+           JComponent.WHEN_IN_FOCUSED_WINDOW);
+
         // (6) To take care of shutting down CEF accordingly, it's important to call
         //     the method "dispose()" of the CefApp instance if the Java
         //     application will be closed. Otherwise you'll get asserts from CEF.
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
+                eventStreams_.dispose();
                 dispose();
                 cefApp_.dispose();
             }
         });
     }
 
+    /**
+     * @return the methods JavaScript can call through window.cefQuery
+     */
+    public RpcRegistry getBridgeRegistry() {
+        return bridgeRegistry_;
+    }
+
+    /**
+     * @return the topics JavaScript can subscribe to with bridge.subscribe()
+     */
+    public EventStreamRouter getEventStreams() {
+        return eventStreams_;
+    }
+
+    /**
+     * Load and initialize CEF, unless that already happened. This is the
+     * slow part of opening the window, so StartupCoordinator calls it while
+     * other startup work is still running.
+     */
+    public static synchronized CefApp initializeCef(String[] args) {
+        if (initializedApp_ != null) {
+            return initializedApp_;
+        }
+
+        // (0) AppHandler registers the app:// scheme, which serves the web-app
+        //     in-process. It has to be added before the CefApp is created.
+        CefApp.addAppHandler(new AppHandler(args));
+
+        // (1) The entry point to JCEF is always the class CefApp. There is only one
+        //     instance per application and therefore you have to call the method
+        //     "getInstance()" instead of a CTOR.
+        //
+        //     CefApp is responsible for the global CEF context. It loads all
+        //     required native libraries, initializes CEF accordingly, starts a
+        //     background task to handle CEF's message loop and takes care of
+        //     shutting down CEF after disposing it.
+        //     A persistent cache_path keeps the browser cache across launches,
+        //     so fingerprinted web-app assets are not fetched again.
+        CefSettings settings = new CefSettings();
+        settings.cache_path = new File(System.getProperty("user.home"), ".buntty/cache").getAbsolutePath();
+        initializedApp_ = CefApp.getInstance(settings);
+        return initializedApp_;
+    }
+
     public static void main(String[] args) {
         // The simple example application is created as anonymous class and points
         // to Google as the very first loaded page. If this example is used on
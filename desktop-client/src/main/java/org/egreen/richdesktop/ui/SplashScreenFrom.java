@@ -1,7 +1,5 @@
 package org.egreen.richdesktop.ui;
 
-import org.cef.OS;
-
 import javax.swing.*;
 import java.awt.*;
 import java.net.URL;
@@ -12,37 +10,21 @@ import static java.awt.Toolkit.getDefaultToolkit;
  * Created by dewmal on 11/24/14.
  */
 public class SplashScreenFrom extends JFrame {
-    private int duration;
-
-    public SplashScreenFrom(int d) {
-        duration = d;
-    }
 
     public static void main(String[] args) {
 
-        Thread serverThread=new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    LocalServer.mainRunServer();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        });serverThread.start();
-
-
 //        // Throw a nice little title page up on the screen first
-        SplashScreenFrom splash = new SplashScreenFrom(400);
-        splash.showSplash(args);
-//        // Normally, we'd call splash.showSplash() and get on with the program.
-//        // But, since this is only a test...
-//        splash.showSplashAndExit(args);
+        SplashScreenFrom splash = new SplashScreenFrom();
+        splash.showSplash();
+
+        // starts the server and the browser, and closes the splash once the
+        // first page is loaded
+        new StartupCoordinator(args, splash).startInBackground();
     }
 
     // A simple little method to show a title screen in the center
-    // of the screen for the amount of time given in the constructor
-    public void showSplash(String args[]) {
+    // of the screen, until StartupCoordinator closes it
+    public void showSplash() {
         JPanel content = (JPanel) getContentPane();
         content.setBackground(Color.red);
 
@@ -65,38 +47,10 @@ public class SplashScreenFrom extends JFrame {
 
         // Display it
         setVisible(true);
-
-        // Wait a little while, maybe while loading resources
-        try {
-            Thread.sleep(duration);
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-
-                    new MainFrame("http://localhost:8090/",OS.isLinux(),false);
-                }
-            }).start();
-
-
-        } catch (Exception e) {
-        }
-
-        setVisible(false);
-
-
-        // The simple example application is created as anonymous class and points
-        // to Google as the very first loaded page. If this example is used on
-        // Linux, it's important to use OSR mode because windowed rendering is not
-        // supported yet. On Macintosh and Windows windowed rendering is used as
-        // default. If you want to test OSR mode on those platforms, simply replace
-        // "OS.isLinux()" with "true" and recompile.
-      //
-
-
     }
 
-    public void showSplashAndExit(String args[]) {
-        showSplash(args);
+    public void showSplashAndExit() {
+        showSplash();
         System.exit(0);
     }
 
@@ -0,0 +1,128 @@
+package org.egreen.richdesktop.ui;
+
+import org.cef.OS;
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.egreen.richdesktop.ui.bridge.TrustedOrigins;
+import org.egreen.richdesktop.ui.handler.AppSchemeHandler;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brings the application up without fixed sleeps: LocalServer (if enabled)
+ * starts on its own thread while CEF is loaded, the browser is created as
+ * soon as both are ready and the splash screen stays up until the first page
+ * has finished loading.
+ */
+public class StartupCoordinator {
+    // -Dbuntty.localServer=true serves the web-app through Jetty instead of app://
+    public static final boolean USE_LOCAL_SERVER = Boolean.getBoolean("buntty.localServer");
+
+    public static final long SERVER_TIMEOUT_SECONDS = 15;
+
+    // the splash is closed after this time even if no page load finished
+    public static final int SPLASH_TIMEOUT_MILLIS = 30000;
+
+    private final String[] args;
+    private final JFrame splash;
+    private final AtomicBoolean splashClosed = new AtomicBoolean();
+
+    private LocalServer localServer;
+
+    public StartupCoordinator(String[] args, JFrame splash) {
+        this.args = args;
+        this.splash = splash;
+    }
+
+    /**
+     * Start up on a background thread, the caller (usually main) returns
+     * immediately.
+     */
+    public void startInBackground() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                start();
+            }
+        }, "StartupCoordinator").start();
+    }
+
+    public void start() {
+        Timer splashTimeout = new Timer(SPLASH_TIMEOUT_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                closeSplash();
+            }
+        });
+        splashTimeout.setRepeats(false);
+        splashTimeout.start();
+
+        if (USE_LOCAL_SERVER) {
+            try {
+                localServer = LocalServer.create();
+                localServer.startInBackground();
+            } catch (Exception e) {
+                System.err.println("Failed to configure LocalServer, using " + AppSchemeHandler.startUrl + ": " + e);
+                localServer = null;
+            }
+        }
+
+        // loads the native libraries, while Jetty binds its port
+        MainFrame.initializeCef(args);
+
+        String startURL = resolveStartUrl();
+        final MainFrame frame = new MainFrame(args, startURL, OS.isLinux(), false, new CefLoadHandlerAdapter() {
+            @Override
+            public void onLoadEnd(CefBrowser browser, int frameIdentifier, int httpStatusCode) {
+                closeSplash();
+            }
+        });
+
+        if (localServer != null) {
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    try {
+                        localServer.stop();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private String resolveStartUrl() {
+        if (localServer == null) {
+            return AppSchemeHandler.startUrl;
+        }
+        try {
+            localServer.awaitReady(SERVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // its pages may use the bridge, like those of app://local
+            TrustedOrigins.getInstance().allow(localServer.getBaseUrl());
+            return localServer.getBaseUrl();
+        } catch (Exception e) {
+            System.err.println("LocalServer is not available, using " + AppSchemeHandler.startUrl + ": " + e);
+            return AppSchemeHandler.startUrl;
+        }
+    }
+
+    private void closeSplash() {
+        if (!splashClosed.compareAndSet(false, true)) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                splash.setVisible(false);
+                splash.dispose();
+            }
+        });
+    }
+}
@@ -0,0 +1,286 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import org.cef.browser.CefBrowser;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class for message router handlers, whose queries take more than a
+ * few milliseconds. onQuery() is called on CEF's UI thread, so instead of
+ * answering there, {@link #handle} runs on a bounded worker pool and the
+ * callback is completed from the worker.
+ * <ul>
+ * <li>each browser may have at most {@link #getMaxPerBrowser()} queries in
+ * flight, so one busy page can't starve the others; further queries and
+ * queries, which don't fit into the pool's queue, fail with {@link #BUSY}</li>
+ * <li>queries running longer than the timeout fail with {@link #TIMEOUT}
+ * and their worker is interrupted</li>
+ * <li>queries cancelled by the page (or by closing it) interrupt their
+ * worker as well</li>
+ * </ul>
+ * Each instance has its own pool, e.g. to separate quick calls from slow
+ * exports. Queries of pages outside of {@link TrustedOrigins} are rejected.
+ */
+public abstract class AsyncQueryHandler extends CefMessageRouterHandlerAdapter {
+    public static final int BUSY = -32001;
+    public static final int TIMEOUT = -32002;
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final int DEFAULT_MAX_PER_BROWSER = 16;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    // shared by all instances, it only fires timeouts
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+            daemonThreads("AsyncQueryHandler-timer"));
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPerBrowser;
+    private volatile long timeoutMillis;
+    private final Map<Long, Query> queries = new ConcurrentHashMap<>();
+    // weak, closed browsers are forgotten
+    private final Map<CefBrowser, AtomicInteger> inFlight =
+            Collections.synchronizedMap(new WeakHashMap<CefBrowser, AtomicInteger>());
+
+    protected AsyncQueryHandler() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_PER_BROWSER, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis 0 for no timeout
+     */
+    protected AsyncQueryHandler(int threads, int queueSize, int maxPerBrowser, long timeoutMillis) {
+        this.maxPerBrowser = maxPerBrowser;
+        this.timeoutMillis = timeoutMillis;
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          daemonThreads(getClass().getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return <code>true</code> if this handler answers <code>request</code>;
+     * called on the UI thread, so it has to be quick
+     */
+    protected abstract boolean accepts(String request);
+
+    /**
+     * Answer a query on a worker thread. Long running handlers should stop
+     * when the thread is interrupted.
+     *
+     * @return the response passed to callback.success()
+     * @throws RpcException to fail the query with its code; other exceptions
+     *                      fail it as internal error
+     */
+    protected abstract String handle(CefBrowser browser, String request, boolean persistent) throws Exception;
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param timeoutMillis for queries started from now on, 0 for no timeout
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getMaxPerBrowser() {
+        return maxPerBrowser;
+    }
+
+    /**
+     * @return number of queries queued or running
+     */
+    public int getPendingCount() {
+        return queries.size();
+    }
+
+    @Override
+    public boolean onQuery(final CefBrowser browser, long query_id, final String request,
+                           final boolean persistent, CefQueryCallback callback) {
+        if (!accepts(request)) {
+            return false;
+        }
+        if (!TrustedOrigins.getInstance().isTrusted(browser.getURL())) {
+            callback.failure(TrustedOrigins.FORBIDDEN, "Origin not allowed");
+            return true;
+        }
+
+        AtomicInteger count;
+        synchronized (inFlight) {
+            count = inFlight.get(browser);
+            if (count == null) {
+                count = new AtomicInteger();
+                inFlight.put(browser, count);
+            }
+        }
+        if (count.incrementAndGet() > maxPerBrowser) {
+            count.decrementAndGet();
+            callback.failure(BUSY, "Too many pending queries");
+            return true;
+        }
+
+        final Query query = new Query(query_id, count, callback);
+        queries.put(query_id, query);
+        try {
+            query.future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    execute(query, browser, request, persistent);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            query.fail(BUSY, "Too many pending queries");
+            return true;
+        }
+
+        final long timeout = timeoutMillis;
+        if (timeout > 0) {
+            query.timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (query.fail(TIMEOUT, "Timed out after " + timeout + "ms")) {
+                        query.interrupt();
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (query.done.get()) {
+                // completed before the timeout was set
+                query.timeout.cancel(false);
+            }
+        }
+        return true;
+    }
+
+    private void execute(Query query, CefBrowser browser, String request, boolean persistent) {
+        if (query.done.get()) {
+            return;
+        }
+        String response;
+        try {
+            response = handle(browser, request, persistent);
+        } catch (RpcException e) {
+            query.fail(e.getCode(), e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            // timed out or cancelled, already completed
+            query.fail(RpcException.INTERNAL_ERROR, "Interrupted");
+            return;
+        } catch (Exception e) {
+            System.err.println("Query " + abbreviate(request) + " failed: " + e);
+            query.fail(RpcException.INTERNAL_ERROR, e.toString());
+            return;
+        }
+        query.succeed(response != null ? response : "");
+    }
+
+    @Override
+    public void onQueryCanceled(CefBrowser browser, long query_id) {
+        Query query = queries.get(query_id);
+        // the callback must not be used anymore
+        if (query != null && query.complete()) {
+            query.interrupt();
+        }
+    }
+
+    /**
+     * Stop all workers.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    private static String abbreviate(String request) {
+        return request.length() > 80 ? request.substring(0, 80) + "..." : request;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A query in flight. Exactly one of worker, timeout and cancellation
+     * completes it.
+     */
+    private final class Query {
+        final long id;
+        final AtomicInteger browserCount;
+        final CefQueryCallback callback;
+        final AtomicBoolean done = new AtomicBoolean();
+        volatile Future<?> future;
+        volatile ScheduledFuture<?> timeout;
+
+        Query(long id, AtomicInteger browserCount, CefQueryCallback callback) {
+            this.id = id;
+            this.browserCount = browserCount;
+            this.callback = callback;
+        }
+
+        /**
+         * @return <code>true</code> if this call completed the query
+         */
+        boolean complete() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            queries.remove(id);
+            browserCount.decrementAndGet();
+            ScheduledFuture<?> scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            return true;
+        }
+
+        void succeed(String response) {
+            if (complete()) {
+                callback.success(response);
+            }
+        }
+
+        boolean fail(int code, String message) {
+            if (complete()) {
+                callback.failure(code, message);
+                return true;
+            }
+            return false;
+        }
+
+        void interrupt() {
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands binary data to the page without base64: Java registers a buffer and
+ * passes the returned URL through the bridge, the page fetches it as an
+ * ArrayBuffer from the transfer:// scheme (TransferSchemeHandler), which
+ * copies the buffer straight into CEF's read buffers.
+ * <pre>
+ * return BinaryTransferRegistry.getInstance().register(image, "image/png");
+ * // JavaScript: bridge.call('image.get').then(bridge.fetchTransfer)
+ * </pre>
+ * Handles are random and can be fetched once; unfetched buffers are
+ * released after their TTL. The pending bytes are limited, so a page, which
+ * doesn't fetch its transfers, can't exhaust the heap.
+ */
+public class BinaryTransferRegistry {
+    public static final String SCHEME = "transfer";
+    public static final String DOMAIN = "data";
+    public static final String URL_PREFIX = SCHEME + "://" + DOMAIN + "/";
+
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+    public static final long MAX_PENDING_BYTES = 512L * 1024 * 1024;
+
+    private static final BinaryTransferRegistry INSTANCE = new BinaryTransferRegistry();
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "BinaryTransferRegistry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    BinaryTransferRegistry() {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static BinaryTransferRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the URL to fetch <code>data</code> from, once
+     */
+    public String register(byte[] data, String mimeType) {
+        return register(ByteBuffer.wrap(data), mimeType, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param data     from its position to its limit; it is neither copied
+     *                 nor modified, but must not change until it is fetched
+     * @param mimeType e.g. "image/png", application/octet-stream if <code>null</code>
+     * @return the URL to fetch <code>data</code> from, once
+     * @throws IllegalStateException if too much data is waiting to be fetched
+     */
+    public String register(ByteBuffer data, String mimeType, long ttlMillis) {
+        int size = data.remaining();
+        if (pendingBytes.addAndGet(size) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-size);
+            throw new IllegalStateException("More than " + MAX_PENDING_BYTES + " bytes waiting to be fetched");
+        }
+
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        StringBuilder handle = new StringBuilder(32);
+        for (byte b : id) {
+            handle.append(Character.forDigit((b >> 4) & 0xF, 16));
+            handle.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        Transfer transfer = new Transfer(handle.toString(), data.slice().asReadOnlyBuffer(),
+                                         mimeType != null ? mimeType : "application/octet-stream");
+        transfers.put(transfer.handle, transfer);
+        // only the handle, so the timer queue never keeps a fetched buffer alive
+        final String expiring = transfer.handle;
+        transfer.expiry = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Transfer removed = transfers.remove(expiring);
+                if (removed != null) {
+                    pendingBytes.addAndGet(-removed.data.remaining());
+                    expired.incrementAndGet();
+                }
+            }
+        }, ttlMillis, TimeUnit.MILLISECONDS);
+        return URL_PREFIX + transfer.handle;
+    }
+
+    /**
+     * Remove a transfer to send it.
+     *
+     * @param url the URL returned by register()
+     * @return the transfer, or <code>null</code> if it was already fetched,
+     * has expired or never existed
+     */
+    public Transfer take(String url) {
+        if (!url.startsWith(URL_PREFIX)) {
+            return null;
+        }
+        int end = url.length();
+        for (int i = URL_PREFIX.length(); i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        Transfer transfer = transfers.remove(url.substring(URL_PREFIX.length(), end));
+        if (transfer != null) {
+            transfer.cancelExpiry();
+            pendingBytes.addAndGet(-transfer.data.remaining());
+            transferredBytes.addAndGet(transfer.data.remaining());
+        }
+        return transfer;
+    }
+
+    /**
+     * Release all transfers, e.g. when the page is reloaded.
+     */
+    public void clear() {
+        for (String handle : transfers.keySet()) {
+            Transfer transfer = transfers.remove(handle);
+            if (transfer != null) {
+                transfer.cancelExpiry();
+                pendingBytes.addAndGet(-transfer.data.remaining());
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return transfers.size();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * @return bytes of all transfers fetched so far
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * @return number of transfers, which were never fetched
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * A registered buffer.
+     */
+    public static final class Transfer {
+        private final String handle;
+        private final ByteBuffer data;
+        private final String mimeType;
+        // set right after registering, the transfer may be taken before
+        private volatile ScheduledFuture<?> expiry;
+
+        Transfer(String handle, ByteBuffer data, String mimeType) {
+            this.handle = handle;
+            this.data = data;
+            this.mimeType = mimeType;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        /**
+         * @return a new read-only view of the data, positioned at its start
+         */
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        private void cancelExpiry() {
+            ScheduledFuture<?> scheduled = expiry;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import org.egreen.richdesktop.ui.rpc.JsonWriter;
+import org.egreen.richdesktop.ui.rpc.RpcMethod;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and load of the JavaScript to Java bridge, per route. The message
+ * router handlers are wrapped in {@link InstrumentedQueryHandler}, which
+ * records each query under its route (see {@link #routeOf}): the number of
+ * calls, errors and cancellations, the queries in flight, the latency as a
+ * histogram and the request and response sizes. BridgeRpcRouter adds one
+ * route per method, "rpc:&lt;method&gt;", which only covers the method
+ * itself, while the "rpc:" route includes the queueing and the IPC of the
+ * whole batch.
+ * <p/>
+ * Queries slower than {@link #getSlowThresholdMillis()} are kept in a log
+ * of the last {@value #MAX_SLOW_QUERIES}. Persistent queries (subscriptions)
+ * count as in flight until they are cancelled; their messages are counted,
+ * but they have no latency.
+ * <p/>
+ * Recording only touches atomic counters, the snapshot for the dialog and
+ * the JSON export is taken when they ask for it.
+ */
+public class BridgeMetrics implements JsonWriter.Streamable {
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 100;
+    public static final int MAX_SLOW_QUERIES = 100;
+    // routes beyond this are counted as OTHER_ROUTE, e.g. unknown methods
+    public static final int MAX_ROUTES = 256;
+    public static final String OTHER_ROUTE = "(other)";
+
+    // bucket i counts latencies below 2^i microseconds, the last one all others
+    static final int BUCKETS = 26;
+
+    private static final BridgeMetrics INSTANCE = new BridgeMetrics();
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+    private volatile long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+    // guarded by itself, oldest first
+    private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    public static BridgeMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return "rpc:" for RPC queries, "sub:&lt;topic&gt;" for subscriptions and
+     * the prefix up to the first colon for other queries
+     */
+    public static String routeOf(String request) {
+        if (request.startsWith(EventStreamRouter.PREFIX)) {
+            return request;
+        }
+        int colon = request.indexOf(':');
+        if (colon <= 0 || colon > 32) {
+            return OTHER_ROUTE;
+        }
+        return request.substring(0, colon + 1);
+    }
+
+    /**
+     * Start recording a query.
+     *
+     * @param requestLength characters of the request, 0 if unknown
+     */
+    public Call begin(String route, int requestLength, boolean persistent, String request) {
+        return new Call(route(route), requestLength, persistent, request);
+    }
+
+    private Route route(String name) {
+        Route route = routes.get(name);
+        if (route == null) {
+            if (routes.size() >= MAX_ROUTES && !OTHER_ROUTE.equals(name)) {
+                return route(OTHER_ROUTE);
+            }
+            Route created = new Route(name);
+            route = routes.putIfAbsent(name, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    public long getSlowThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    public void setSlowThresholdMillis(long millis) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return a snapshot of every route, by name
+     */
+    public List<RouteSnapshot> getRoutes() {
+        List<RouteSnapshot> snapshots = new ArrayList<>(routes.size());
+        for (Route route : routes.values()) {
+            snapshots.add(route.snapshot());
+        }
+        Collections.sort(snapshots, new Comparator<RouteSnapshot>() {
+            @Override
+            public int compare(RouteSnapshot a, RouteSnapshot b) {
+                return a.getRoute().compareTo(b.getRoute());
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * @return the logged slow queries, newest first
+     */
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            List<SlowQuery> list = new ArrayList<>(slowQueries);
+            Collections.reverse(list);
+            return list;
+        }
+    }
+
+    public void reset() {
+        routes.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    @Override
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("slowThresholdMillis").value(getSlowThresholdMillis());
+        writer.name("routes").value(getRoutes());
+        writer.name("slowQueries").value(getSlowQueries());
+        writer.endObject();
+    }
+
+    public void exportJson(File file) throws IOException {
+        try (JsonWriter writer = new JsonWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeJson(writer);
+        }
+    }
+
+    /**
+     * @return RPC method returning the JSON export, see LocalServer
+     */
+    public RpcMethod createRpcMethod() {
+        return new RpcMethod() {
+            @Override
+            public Object invoke(Object params) {
+                return BridgeMetrics.this;
+            }
+        };
+    }
+
+    private void logSlow(SlowQuery query) {
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= MAX_SLOW_QUERIES) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(query);
+        }
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        // 64 - numberOfLeadingZeros is the bit length, latencies below 2^i us go to bucket i
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * A query being recorded; exactly one of its end methods counts.
+     */
+    public final class Call {
+        private final Route route;
+        private final long start = System.nanoTime();
+        private final int requestLength;
+        private final boolean persistent;
+        private final String request;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        Call(Route route, int requestLength, boolean persistent, String request) {
+            this.route = route;
+            this.requestLength = requestLength;
+            this.persistent = persistent;
+            this.request = request;
+            route.inFlight.incrementAndGet();
+        }
+
+        /**
+         * A response was sent; ends the call unless it is persistent.
+         *
+         * @param responseLength characters of the response, 0 if unknown
+         */
+        public void succeeded(int responseLength) {
+            if (persistent) {
+                if (!ended.get()) {
+                    route.messages.incrementAndGet();
+                    route.responseChars.addAndGet(responseLength);
+                }
+            } else {
+                end(responseLength, 0);
+            }
+        }
+
+        public void failed(int errorCode) {
+            end(0, errorCode);
+        }
+
+        public void cancelled() {
+            if (ended.compareAndSet(false, true)) {
+                route.inFlight.decrementAndGet();
+                route.cancelled.incrementAndGet();
+                route.requestChars.addAndGet(requestLength);
+            }
+        }
+
+        /**
+         * Forget the call, e.g. because the handler didn't accept the query.
+         */
+        public void discard() {
+            if (ended.compareAndSet(false, true)) {
+                route.inFlight.decrementAndGet();
+            }
+        }
+
+        private void end(int responseLength, int errorCode) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            route.inFlight.decrementAndGet();
+            route.calls.incrementAndGet();
+            if (errorCode != 0) {
+                route.errors.incrementAndGet();
+            }
+            route.requestChars.addAndGet(requestLength);
+            route.responseChars.addAndGet(responseLength);
+            if (persistent) {
+                // a failed subscription, its lifetime is no latency
+                return;
+            }
+            route.record(nanos);
+            if (nanos >= slowThresholdNanos) {
+                logSlow(new SlowQuery(System.currentTimeMillis(), route.name, nanos, requestLength,
+                                      responseLength, errorCode, request));
+            }
+        }
+    }
+
+    private static final class Route {
+        final String name;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        final AtomicLong messages = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong requestChars = new AtomicLong();
+        final AtomicLong responseChars = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Route(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            histogram.incrementAndGet(bucket(nanos));
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        RouteSnapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+            }
+            return new RouteSnapshot(name, calls.get(), errors.get(), cancelled.get(), messages.get(),
+                                     inFlight.get(), requestChars.get(), responseChars.get(),
+                                     totalNanos.get(), maxNanos.get(), counts);
+        }
+    }
+
+    /**
+     * The counters of a route at one point in time.
+     */
+    public static final class RouteSnapshot implements JsonWriter.Streamable {
+        private final String route;
+        private final long calls;
+        private final long errors;
+        private final long cancelled;
+        private final long messages;
+        private final int inFlight;
+        private final long requestChars;
+        private final long responseChars;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        RouteSnapshot(String route, long calls, long errors, long cancelled, long messages, int inFlight,
+                      long requestChars, long responseChars, long totalNanos, long maxNanos,
+                      long[] histogram) {
+            this.route = route;
+            this.calls = calls;
+            this.errors = errors;
+            this.cancelled = cancelled;
+            this.messages = messages;
+            this.inFlight = inFlight;
+            this.requestChars = requestChars;
+            this.responseChars = responseChars;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        /**
+         * @return completed calls, including the failed ones
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return responses sent on persistent queries
+         */
+        public long getMessages() {
+            return messages;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getRequestChars() {
+            return requestChars;
+        }
+
+        public long getResponseChars() {
+            return responseChars;
+        }
+
+        public double getMeanMillis() {
+            long count = 0;
+            for (long bucketCount : histogram) {
+                count += bucketCount;
+            }
+            return count > 0 ? totalNanos / 1e6 / count : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * @param percentile e.g. 99
+         * @return upper bound of the histogram bucket holding the percentile,
+         * so accurate within a factor of 2
+         */
+        public double getPercentileMillis(double percentile) {
+            long count = 0;
+            for (long bucketCount : histogram) {
+                count += bucketCount;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return i < histogram.length - 1 ? Math.min((1L << i) / 1e3, getMaxMillis()) : getMaxMillis();
+                }
+            }
+            return getMaxMillis();
+        }
+
+        @Override
+        public void writeJson(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            writer.name("route").value(route);
+            writer.name("calls").value(calls);
+            writer.name("errors").value(errors);
+            writer.name("cancelled").value(cancelled);
+            writer.name("messages").value(messages);
+            writer.name("inFlight").value(inFlight);
+            writer.name("requestChars").value(requestChars);
+            writer.name("responseChars").value(responseChars);
+            writer.name("meanMillis").value(getMeanMillis());
+            writer.name("p50Millis").value(getPercentileMillis(50));
+            writer.name("p90Millis").value(getPercentileMillis(90));
+            writer.name("p99Millis").value(getPercentileMillis(99));
+            writer.name("maxMillis").value(getMaxMillis());
+            // bucket i: below 2^i microseconds
+            writer.name("histogram").value(histogram);
+            writer.endObject();
+        }
+    }
+
+    /**
+     * A query slower than the threshold.
+     */
+    public static final class SlowQuery implements JsonWriter.Streamable {
+        private static final int MAX_EXCERPT = 80;
+
+        private final long time;
+        private final String route;
+        private final long nanos;
+        private final int requestChars;
+        private final int responseChars;
+        private final int errorCode;
+        private final String excerpt;
+
+        SlowQuery(long time, String route, long nanos, int requestChars, int responseChars, int errorCode,
+                  String request) {
+            this.time = time;
+            this.route = route;
+            this.nanos = nanos;
+            this.requestChars = requestChars;
+            this.responseChars = responseChars;
+            this.errorCode = errorCode;
+            this.excerpt = request == null || request.length() <= MAX_EXCERPT ? request
+                    : request.substring(0, MAX_EXCERPT) + "...";
+        }
+
+        /**
+         * @return end of the query, as System.currentTimeMillis()
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        public int getRequestChars() {
+            return requestChars;
+        }
+
+        public int getResponseChars() {
+            return responseChars;
+        }
+
+        /**
+         * @return 0 if the query succeeded
+         */
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        /**
+         * @return the start of the request, <code>null</code> if unknown
+         */
+        public String getExcerpt() {
+            return excerpt;
+        }
+
+        @Override
+        public void writeJson(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            writer.name("time").value(time);
+            writer.name("route").value(route);
+            writer.name("millis").value(getMillis());
+            writer.name("requestChars").value(requestChars);
+            writer.name("responseChars").value(responseChars);
+            writer.name("errorCode").value(errorCode);
+            writer.name("request").value(excerpt);
+            writer.endObject();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import org.cef.browser.CefBrowser;
+import org.egreen.richdesktop.ui.rpc.JsonWriter;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
+import org.eclipse.jetty.util.ajax.JSON;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * RPC over the CefMessageRouter: dispatches "rpc:" queries to the methods of
+ * an {@link RpcRegistry} by name, instead of matching the query string
+ * against every known command.
+ * <p/>
+ * A query carries a single call or a batch of calls as compact JSON:
+ * <pre>
+ * rpc:{"m": "binding.reverse", "p": ["text"]}
+ * rpc:[{"m": "a", "p": {}}, {"m": "b"}]
+ * </pre>
+ * A single call succeeds with its result as JSON, or fails with the
+ * {@link RpcException} code. A batch succeeds with one entry per call, in
+ * order, <code>{"r": result}</code> or <code>{"e": [code, message]}</code>,
+ * so the calls of a whole screen take one IPC round trip. bridge.js of the
+ * web-app batches all calls made in the same tick.
+ * <p/>
+ * Binary values are sent as <code>{"$b64": "..."}</code>: such parameters
+ * arrive as byte[], byte[] results are encoded the same way.
+ * <p/>
+ * Queries are answered on the worker pool of {@link AsyncQueryHandler}, so
+ * methods may block without freezing the browser. With
+ * {@link #setMetrics} each method's calls are recorded as route
+ * "rpc:&lt;method&gt;".
+ */
+public class BridgeRpcRouter extends AsyncQueryHandler {
+    public static final String PREFIX = "rpc:";
+    public static final String BASE64_KEY = "$b64";
+    public static final int MAX_BATCH = 1000;
+
+    private final RpcRegistry registry;
+    private volatile BridgeMetrics metrics;
+
+    public BridgeRpcRouter(RpcRegistry registry) {
+        this.registry = registry;
+    }
+
+    public BridgeRpcRouter(RpcRegistry registry, int threads, int queueSize, int maxPerBrowser,
+                           long timeoutMillis) {
+        super(threads, queueSize, maxPerBrowser, timeoutMillis);
+        this.registry = registry;
+    }
+
+    public RpcRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param metrics records every method call, <code>null</code> for none
+     */
+    public void setMetrics(BridgeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected boolean accepts(String request) {
+        return request.startsWith(PREFIX);
+    }
+
+    @Override
+    protected String handle(CefBrowser browser, String request, boolean persistent)
+            throws RpcException, IOException {
+        Object body;
+        try {
+            body = JSON.parse(request.substring(PREFIX.length()));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new RpcException(RpcException.PARSE_ERROR, "Parse error: " + e.getMessage());
+        }
+
+        if (body instanceof Object[]) {
+            return invokeBatch((Object[]) body);
+        }
+        Object result = invoke(body);
+        StringWriter json = new StringWriter();
+        new Writer(json).value(result).flush();
+        return json.toString();
+    }
+
+    private String invokeBatch(Object[] calls) throws RpcException, IOException {
+        if (calls.length > MAX_BATCH) {
+            throw new RpcException(RpcException.INVALID_REQUEST,
+                                   "Batch of " + calls.length + " calls exceeds " + MAX_BATCH);
+        }
+        StringWriter json = new StringWriter(64 * calls.length);
+        Writer writer = new Writer(json);
+        writer.beginArray();
+        for (Object call : calls) {
+            Object result;
+            try {
+                result = invoke(call);
+            } catch (RpcException e) {
+                writer.beginObject()
+                      .name("e").beginArray().value(e.getCode()).value(e.getMessage()).endArray()
+                      .endObject();
+                continue;
+            }
+            writer.beginObject().name("r").value(result).endObject();
+        }
+        writer.endArray().flush();
+        return json.toString();
+    }
+
+    private Object invoke(Object call) throws RpcException {
+        if (!(call instanceof Map) || !(((Map<?, ?>) call).get("m") instanceof String)) {
+            throw new RpcException(RpcException.INVALID_REQUEST, "Invalid request: no method");
+        }
+        Map<?, ?> map = (Map<?, ?>) call;
+        String method = (String) map.get("m");
+        BridgeMetrics recorder = metrics;
+        if (recorder == null) {
+            return registry.invoke(method, decode(map.get("p")));
+        }
+
+        BridgeMetrics.Call recording = recorder.begin(PREFIX + method, 0, false, null);
+        try {
+            Object result = registry.invoke(method, decode(map.get("p")));
+            recording.succeeded(0);
+            return result;
+        } catch (RpcException e) {
+            recording.failed(e.getCode());
+            throw e;
+        } catch (RuntimeException e) {
+            recording.failed(RpcException.INTERNAL_ERROR);
+            throw e;
+        }
+    }
+
+    /**
+     * Replace <code>{"$b64": "..."}</code> by byte[], in place.
+     */
+    @SuppressWarnings("unchecked")
+    static Object decode(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            if (map.size() == 1 && map.get(BASE64_KEY) instanceof String) {
+                return DatatypeConverter.parseBase64Binary((String) map.get(BASE64_KEY));
+            }
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                entry.setValue(decode(entry.getValue()));
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                array[i] = decode(array[i]);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Writes byte[] as <code>{"$b64": "..."}</code>, also inside of maps and
+     * collections.
+     */
+    static class Writer extends JsonWriter {
+        Writer(java.io.Writer out) {
+            super(out, 1024);
+        }
+
+        @Override
+        public JsonWriter value(Object value) throws IOException {
+            if (value instanceof byte[]) {
+                return beginObject()
+                        .name(BASE64_KEY).value(DatatypeConverter.printBase64Binary((byte[]) value))
+                        .endObject();
+            }
+            return super.value(value);
+        }
+    }
+}
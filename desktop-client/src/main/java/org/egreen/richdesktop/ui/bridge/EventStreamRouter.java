@@ -0,0 +1,269 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import org.cef.browser.CefBrowser;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes events from Java to JavaScript over persistent message router
+ * queries, instead of polling. JavaScript subscribes to a topic with a
+ * persistent "sub:" query (bridge.subscribe() in bridge.js), which stays
+ * open until it is cancelled; every update is a callback.success() on it.
+ * <p/>
+ * Events are delivered at most once per frame ({@value #FRAME_MILLIS}ms):
+ * all events of a subscription since the last frame go out in a single
+ * message, <code>{"events": [...], "dropped": n}</code>.
+ * <ul>
+ * <li>{@link #publish} queues an event; each subscription buffers at most
+ * {@value #MAX_BUFFERED} of them, the oldest are dropped and counted</li>
+ * <li>{@link #update} sets the current value of a topic, e.g. a progress;
+ * updates within a frame coalesce to the latest one, and new subscribers
+ * get the current value right away</li>
+ * </ul>
+ * Nothing runs while no events are pending. Subscriptions of pages outside
+ * of {@link TrustedOrigins} are rejected.
+ */
+public class EventStreamRouter extends CefMessageRouterHandlerAdapter {
+    public static final String PREFIX = "sub:";
+    public static final long FRAME_MILLIS = 16;
+    public static final int MAX_BUFFERED = 256;
+
+    private final ConcurrentMap<String, List<Subscription>> topics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> currentValues = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EventStreamRouter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    // guarded by "this"
+    private boolean flushScheduled;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (EventStreamRouter.this) {
+                flushScheduled = false;
+            }
+            for (Subscription subscription : subscriptions.values()) {
+                subscription.flush();
+            }
+        }
+    };
+
+    @Override
+    public boolean onQuery(CefBrowser browser, long query_id, String request, boolean persistent,
+                           CefQueryCallback callback) {
+        if (!request.startsWith(PREFIX)) {
+            return false;
+        }
+        if (!TrustedOrigins.getInstance().isTrusted(browser.getURL())) {
+            callback.failure(TrustedOrigins.FORBIDDEN, "Origin not allowed");
+            return true;
+        }
+        String topic = request.substring(PREFIX.length());
+        if (!persistent || topic.isEmpty()) {
+            callback.failure(RpcException.INVALID_REQUEST, "Subscriptions need a topic and a persistent query");
+            return true;
+        }
+
+        Subscription subscription = new Subscription(query_id, topic, callback);
+        subscriptions.put(query_id, subscription);
+        List<Subscription> subscribers = topics.get(topic);
+        if (subscribers == null) {
+            List<Subscription> created = new CopyOnWriteArrayList<>();
+            subscribers = topics.putIfAbsent(topic, created);
+            if (subscribers == null) {
+                subscribers = created;
+            }
+        }
+        subscribers.add(subscription);
+
+        Object current = currentValues.get(topic);
+        if (current != null) {
+            subscription.update(current);
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    @Override
+    public void onQueryCanceled(CefBrowser browser, long query_id) {
+        Subscription subscription = subscriptions.remove(query_id);
+        if (subscription != null) {
+            List<Subscription> subscribers = topics.get(subscription.topic);
+            if (subscribers != null) {
+                subscribers.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Queue an event for all subscribers of <code>topic</code>.
+     *
+     * @param event anything {@link org.egreen.richdesktop.ui.rpc.JsonWriter}
+     *              can write; must not change afterwards
+     */
+    public void publish(String topic, Object event) {
+        List<Subscription> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            subscription.publish(event);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Set the current value of <code>topic</code>; subscribers only get the
+     * latest value of each frame.
+     *
+     * @param value <code>null</code> clears it
+     */
+    public void update(String topic, Object value) {
+        if (value == null) {
+            currentValues.remove(topic);
+            return;
+        }
+        currentValues.put(topic, value);
+        List<Subscription> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            subscription.update(value);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * @return the number of open subscriptions of <code>topic</code>
+     */
+    public int getSubscriberCount(String topic) {
+        List<Subscription> subscribers = topics.get(topic);
+        return subscribers != null ? subscribers.size() : 0;
+    }
+
+    /**
+     * @return topic and number of subscribers of each topic with subscribers
+     */
+    public Map<String, Integer> getTopics() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Subscription>> topic : topics.entrySet()) {
+            if (!topic.getValue().isEmpty()) {
+                counts.put(topic.getKey(), topic.getValue().size());
+            }
+        }
+        return counts;
+    }
+
+    private synchronized void scheduleFlush() {
+        if (!flushScheduled) {
+            try {
+                scheduler.schedule(flush, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // disposed
+            }
+        }
+    }
+
+    public void dispose() {
+        scheduler.shutdownNow();
+        subscriptions.clear();
+        topics.clear();
+    }
+
+    private static final class Subscription {
+        private final long queryId;
+        private final String topic;
+        private final CefQueryCallback callback;
+
+        // guarded by "this"
+        private final ArrayDeque<Object> events = new ArrayDeque<>();
+        private Object value;
+        private boolean hasValue;
+        private int dropped;
+
+        Subscription(long queryId, String topic, CefQueryCallback callback) {
+            this.queryId = queryId;
+            this.topic = topic;
+            this.callback = callback;
+        }
+
+        synchronized void publish(Object event) {
+            if (events.size() >= MAX_BUFFERED) {
+                events.poll();
+                dropped++;
+            }
+            events.add(event);
+        }
+
+        synchronized void update(Object newValue) {
+            value = newValue;
+            hasValue = true;
+        }
+
+        void flush() {
+            List<Object> batch;
+            int droppedEvents;
+            synchronized (this) {
+                if (events.isEmpty() && !hasValue) {
+                    return;
+                }
+                batch = new ArrayList<>(events.size() + 1);
+                batch.addAll(events);
+                // the current value after the events queued before it
+                if (hasValue) {
+                    batch.add(value);
+                }
+                events.clear();
+                value = null;
+                hasValue = false;
+                droppedEvents = dropped;
+                dropped = 0;
+            }
+
+            StringWriter json = new StringWriter();
+            try {
+                new BridgeRpcRouter.Writer(json).beginObject()
+                        .name("events").value(batch)
+                        .name("dropped").value(droppedEvents)
+                        .endObject()
+                        .flush();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to write events of " + topic + ": " + e);
+                return;
+            }
+            callback.success(json.toString());
+        }
+
+        @Override
+        public String toString() {
+            return topic + "#" + queryId;
+        }
+    }
+}
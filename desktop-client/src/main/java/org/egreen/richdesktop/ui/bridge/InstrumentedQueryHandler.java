@@ -0,0 +1,80 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import org.cef.browser.CefBrowser;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefMessageRouterHandler;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the queries of a message router handler in {@link BridgeMetrics}.
+ * The handler gets a callback, which notes the response before passing it
+ * on, so it works for handlers answering right away as well as later from
+ * other threads.
+ * <pre>
+ * router.addHandler(new InstrumentedQueryHandler(handler, BridgeMetrics.getInstance()), false);
+ * </pre>
+ */
+public class InstrumentedQueryHandler extends CefMessageRouterHandlerAdapter {
+    private final CefMessageRouterHandler handler;
+    private final BridgeMetrics metrics;
+    // query id -> call, until the query is completed or cancelled
+    private final Map<Long, BridgeMetrics.Call> calls = new ConcurrentHashMap<>();
+
+    public InstrumentedQueryHandler(CefMessageRouterHandler handler, BridgeMetrics metrics) {
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    public CefMessageRouterHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public boolean onQuery(CefBrowser browser, final long query_id, String request, final boolean persistent,
+                           final CefQueryCallback callback) {
+        final BridgeMetrics.Call call = metrics.begin(BridgeMetrics.routeOf(request), request.length(),
+                                                      persistent, request);
+        calls.put(query_id, call);
+        CefQueryCallback recording = new CefQueryCallback() {
+            @Override
+            public void success(String response) {
+                if (!persistent) {
+                    calls.remove(query_id);
+                }
+                call.succeeded(response != null ? response.length() : 0);
+                callback.success(response);
+            }
+
+            @Override
+            public void failure(int error_code, String error_message) {
+                calls.remove(query_id);
+                call.failed(error_code);
+                callback.failure(error_code, error_message);
+            }
+        };
+
+        boolean handled = false;
+        try {
+            handled = handler.onQuery(browser, query_id, request, persistent, recording);
+        } finally {
+            if (!handled) {
+                // left to the next handler, which records it itself
+                calls.remove(query_id);
+                call.discard();
+            }
+        }
+        return handled;
+    }
+
+    @Override
+    public void onQueryCanceled(CefBrowser browser, long query_id) {
+        BridgeMetrics.Call call = calls.remove(query_id);
+        if (call != null) {
+            call.cancelled();
+        }
+        handler.onQueryCanceled(browser, query_id);
+    }
+}
@@ -0,0 +1,61 @@
+package org.egreen.richdesktop.ui.bridge;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Origins whose pages may use the bridge. window.cefQuery is installed in
+ * every page the browser loads, including remote content, so the query
+ * handlers ({@link AsyncQueryHandler}, {@link EventStreamRouter}) reject
+ * queries of pages from any other origin with {@link #FORBIDDEN}.
+ * <p/>
+ * Empty until the application allows its own origins, i.e. app://local and
+ * the LocalServer, see MainFrame and StartupCoordinator. The message router
+ * doesn't say which frame sent a query, so the main frame's URL is checked.
+ */
+public class TrustedOrigins {
+    public static final int FORBIDDEN = -32003;
+
+    private static final TrustedOrigins INSTANCE = new TrustedOrigins();
+
+    private final Set<String> origins = new CopyOnWriteArraySet<>();
+
+    public static TrustedOrigins getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param url any URL of the origin, e.g. "app://local/index.html"
+     */
+    public void allow(String url) {
+        String origin = originOf(url);
+        if (origin == null) {
+            throw new IllegalArgumentException("No origin: " + url);
+        }
+        origins.add(origin);
+    }
+
+    public boolean isTrusted(String url) {
+        String origin = url != null ? originOf(url) : null;
+        return origin != null && origins.contains(origin);
+    }
+
+    /**
+     * @return scheme, host and port, e.g. "http://127.0.0.1:41234", or
+     * <code>null</code> if <code>url</code> has no host
+     */
+    static String originOf(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+            String origin = uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase();
+            return uri.getPort() >= 0 ? origin + ":" + uri.getPort() : origin;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.egreen.richdesktop.ui.cache;
+
+import org.egreen.richdesktop.ui.resource.PackageJson;
+import org.eclipse.jetty.util.ajax.JSON;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of the {@link HttpDiskCache}, read from the "httpCache" section of
+ * the web-app's package.json:
+ * <pre>
+ * "httpCache": {
+ *     "origins": ["https://cdn.example.com"],
+ *     "maxBytes": 268435456,
+ *     "connectTimeout": 10000,
+ *     "readTimeout": 30000
+ * }
+ * </pre>
+ * Only GET requests to the listed origins go through the cache, so it
+ * should only list origins of public, cookie-free content. Without origins
+ * the cache is disabled.
+ */
+public class HttpCacheConfig {
+    private final List<String> origins = new ArrayList<>();
+    private File directory = new File(System.getProperty("user.home"), ".buntty/http-cache");
+    private long maxBytes = 256L * 1024 * 1024;
+    private int connectTimeout = 10000;
+    private int readTimeout = 30000;
+
+    /**
+     * @return the configuration of package.json, defaults if there is none
+     */
+    public static HttpCacheConfig load() throws IOException {
+        String json = PackageJson.read();
+        return json != null ? parse(json) : new HttpCacheConfig();
+    }
+
+    public static HttpCacheConfig parse(String json) {
+        HttpCacheConfig config = new HttpCacheConfig();
+        Object parsed = JSON.parse(json);
+        if (parsed instanceof Map) {
+            Object cache = ((Map<?, ?>) parsed).get("httpCache");
+            if (cache instanceof Map) {
+                config.apply((Map<?, ?>) cache);
+            }
+        }
+        return config;
+    }
+
+    private void apply(Map<?, ?> cache) {
+        Object list = cache.get("origins");
+        if (list instanceof Object[]) {
+            for (Object origin : (Object[]) list) {
+                if (origin instanceof String) {
+                    String value = (String) origin;
+                    origins.add(value.endsWith("/") ? value.substring(0, value.length() - 1) : value);
+                }
+            }
+        }
+        Object dir = cache.get("directory");
+        if (dir instanceof String) {
+            directory = new File((String) dir);
+        }
+        if (cache.get("maxBytes") instanceof Number) {
+            maxBytes = ((Number) cache.get("maxBytes")).longValue();
+        }
+        if (cache.get("connectTimeout") instanceof Number) {
+            connectTimeout = ((Number) cache.get("connectTimeout")).intValue();
+        }
+        if (cache.get("readTimeout") instanceof Number) {
+            readTimeout = ((Number) cache.get("readTimeout")).intValue();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !origins.isEmpty();
+    }
+
+    /**
+     * @return origins like "https://cdn.example.com", without trailing slash
+     */
+    public List<String> getOrigins() {
+        return Collections.unmodifiableList(origins);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+}
@@ -0,0 +1,462 @@
+package org.egreen.richdesktop.ui.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Disk cache of HTTP responses. Bodies are stored one file per URL, the
+ * metadata of all entries in a single {@value #INDEX} file, which is
+ * rewritten (atomically, via a temporary file) whenever entries are added
+ * or removed. Entries are evicted least recently used first once the
+ * bodies exceed the size limit.
+ * <p/>
+ * Body files are never overwritten: a new response for the same URL gets a
+ * new file, so a file can be streamed while the entry is being replaced.
+ */
+public class HttpDiskCache {
+    public static final String INDEX = "index";
+    private static final String INDEX_VERSION = "buntty-http-cache 1";
+    // names of the files the cache writes besides the index: bodies
+    // ("<sha1 of url>-<counter>"), partial bodies and the temporary index
+    private static final Pattern CACHE_FILE =
+            Pattern.compile("[0-9a-f]{40}-[0-9a-f]+(\\.part)?|" + Pattern.quote(INDEX + ".tmp"));
+
+    private static HttpDiskCache defaultCache;
+    private static boolean defaultCacheOpened;
+
+    private final File directory;
+    private final long maxBytes;
+    private final List<String> origins;
+    private final HttpCacheConfig config;
+    private final AtomicLong fileCounter = new AtomicLong(System.currentTimeMillis());
+
+    // guarded by "this", in access order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    public HttpDiskCache(HttpCacheConfig config) throws IOException {
+        this.config = config;
+        this.directory = config.getDirectory();
+        this.maxBytes = config.getMaxBytes();
+        this.origins = config.getOrigins();
+        Files.createDirectories(directory.toPath());
+        loadIndex();
+    }
+
+    /**
+     * @return the cache configured in package.json, or <code>null</code> if it
+     * is disabled or can't be opened
+     */
+    public static synchronized HttpDiskCache getDefault() {
+        if (!defaultCacheOpened) {
+            defaultCacheOpened = true;
+            try {
+                HttpCacheConfig config = HttpCacheConfig.load();
+                if (config.isEnabled()) {
+                    defaultCache = new HttpDiskCache(config);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to open the HTTP cache: " + e);
+            }
+        }
+        return defaultCache;
+    }
+
+    public HttpCacheConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return <code>true</code> if <code>url</code> belongs to one of the
+     * configured origins
+     */
+    public boolean handles(String url) {
+        for (String origin : origins) {
+            if (url.startsWith(origin)
+                    && (url.length() == origin.length() || url.charAt(origin.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the entry for <code>url</code>, or <code>null</code>
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = entries.get(url);
+        if (entry != null && !getFile(entry).isFile()) {
+            // deleted behind our back
+            remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    public File getFile(Entry entry) {
+        return new File(directory, entry.getFileName());
+    }
+
+    /**
+     * Start writing the body of a response, which is added with
+     * {@link Fill#commit} once it is complete.
+     */
+    public Fill startFill(String url) throws IOException {
+        String fileName = hash(url) + "-" + Long.toHexString(fileCounter.incrementAndGet());
+        return new Fill(url, fileName);
+    }
+
+    /**
+     * A 304 confirmed the entry, it is fresh until <code>expiresAt</code>.
+     *
+     * @return the updated entry
+     */
+    public synchronized Entry refresh(Entry entry, long expiresAt) {
+        Entry refreshed = new Entry(entry.url, entry.fileName, entry.contentType, entry.etag,
+                                    entry.lastModified, System.currentTimeMillis(), expiresAt, entry.size);
+        if (entries.get(entry.url) == entry) {
+            entries.put(entry.url, refreshed);
+            saveIndexQuietly();
+        }
+        return refreshed;
+    }
+
+    public synchronized void remove(String url) {
+        Entry entry = entries.remove(url);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            delete(entry);
+            saveIndexQuietly();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry previous = entries.put(entry.url, entry);
+        if (previous != null) {
+            totalBytes -= previous.size;
+            delete(previous);
+        }
+        totalBytes += entry.size;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry evicted = it.next();
+            it.remove();
+            totalBytes -= evicted.size;
+            delete(evicted);
+        }
+        saveIndexQuietly();
+    }
+
+    private void delete(Entry entry) {
+        File file = getFile(entry);
+        if (file.exists() && !file.delete()) {
+            // still open, e.g. on Windows; removed as an orphan on the next start
+            file.deleteOnExit();
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        File index = new File(directory, INDEX);
+        Set<String> known = new HashSet<>();
+        known.add(INDEX);
+        if (index.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+                if (INDEX_VERSION.equals(reader.readLine())) {
+                    String line;
+                    // oldest access first, as written by saveIndex
+                    while ((line = reader.readLine()) != null) {
+                        Entry entry = Entry.parse(line);
+                        if (entry != null && getFile(entry).isFile()) {
+                            entries.put(entry.url, entry);
+                            totalBytes += entry.size;
+                            known.add(entry.fileName);
+                        }
+                    }
+                }
+            }
+        }
+
+        // bodies of interrupted fills or evicted entries, which couldn't be
+        // deleted; other files are left alone, the directory is configurable
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!known.contains(file.getName()) && file.isFile()
+                        && CACHE_FILE.matcher(file.getName()).matches()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void saveIndexQuietly() {
+        try {
+            saveIndex();
+        } catch (IOException e) {
+            System.err.println("Failed to write the HTTP cache index: " + e);
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        File tmp = new File(directory, INDEX + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(INDEX_VERSION);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                writer.write(entry.format());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), new File(directory, INDEX).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Body of a response being written to the cache.
+     */
+    public class Fill {
+        private final String url;
+        private final String fileName;
+        private final OutputStream out;
+        private long size;
+        private boolean closed;
+
+        private Fill(String url, String fileName) throws IOException {
+            this.url = url;
+            this.fileName = fileName;
+            this.out = new FileOutputStream(new File(directory, fileName + ".part"));
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        /**
+         * Add the complete body to the cache.
+         */
+        public Entry commit(String contentType, String etag, String lastModified, long expiresAt)
+                throws IOException {
+            close();
+            File part = new File(directory, fileName + ".part");
+            Files.move(part.toPath(), new File(directory, fileName).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Entry entry = new Entry(url, fileName, contentType, etag, lastModified,
+                                    System.currentTimeMillis(), expiresAt, size);
+            put(entry);
+            return entry;
+        }
+
+        /**
+         * Discard an incomplete body.
+         */
+        public void abort() {
+            try {
+                close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            new File(directory, fileName + ".part").delete();
+        }
+
+        private void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Metadata of a cached response. Immutable.
+     */
+    public static class Entry {
+        private final String url;
+        private final String fileName;
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+        private final long fetchedAt;
+        private final long expiresAt;
+        private final long size;
+
+        Entry(String url, String fileName, String contentType, String etag, String lastModified,
+              long fetchedAt, long expiresAt, long size) {
+            this.url = url;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the ETag validator, or <code>null</code>
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return the Last-Modified validator, or <code>null</code>
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        public boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        // tab separated, empty fields for null; none of the values contains tabs or line breaks
+        String format() {
+            return url + '\t' + fileName + '\t' + nullToEmpty(contentType) + '\t' + nullToEmpty(etag)
+                    + '\t' + nullToEmpty(lastModified) + '\t' + fetchedAt + '\t' + expiresAt + '\t' + size;
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], fields[1], emptyToNull(fields[2]), emptyToNull(fields[3]),
+                                 emptyToNull(fields[4]), Long.parseLong(fields[5]),
+                                 Long.parseLong(fields[6]), Long.parseLong(fields[7]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the values can be written to the index
+         */
+        public static boolean isStorable(String... values) {
+            for (String value : values) {
+                if (value != null && (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0
+                        || value.indexOf('\r') >= 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String nullToEmpty(String s) {
+            return s == null ? "" : s;
+        }
+
+        private static String emptyToNull(String s) {
+            return s.isEmpty() ? null : s;
+        }
+    }
+
+    /**
+     * Freshness lifetime of a response from its headers: max-age, Expires or,
+     * without either, 10% of the time since Last-Modified (at most a day).
+     *
+     * @return the time until which the response is fresh (in the past if it
+     * must always be revalidated), or -1 if it must not be stored
+     */
+    public static long expiresAt(String cacheControl, long expires, long date, long lastModified, long now) {
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase();
+            if (directives.contains("no-store")) {
+                return -1;
+            }
+            if (directives.contains("no-cache")) {
+                return 0;
+            }
+            for (String directive : directives.split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        if (expires > 0) {
+            // relative to the server's clock
+            return now + (expires - (date > 0 ? date : now));
+        }
+        if (lastModified > 0) {
+            long age = (date > 0 ? date : now) - lastModified;
+            return now + Math.max(0, Math.min(age / 10, 24L * 60 * 60 * 1000));
+        }
+        return 0;
+    }
+
+    /**
+     * @return URLs of all entries, least recently used first
+     */
+    public synchronized List<String> getUrls() {
+        return new ArrayList<>(entries.keySet());
+    }
+}
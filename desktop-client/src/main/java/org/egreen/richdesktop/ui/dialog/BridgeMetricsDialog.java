@@ -0,0 +1,153 @@
+package org.egreen.richdesktop.ui.dialog;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+import org.egreen.richdesktop.ui.bridge.BridgeMetrics;
+
+/**
+ * Shows the latency and load of the JavaScript bridge per route, and the
+ * recent slow queries, see BridgeMetrics. Refreshes every second while it
+ * is open.
+ */
+@SuppressWarnings("serial")
+public class BridgeMetricsDialog extends JDialog {
+  private static final String[] ROUTE_COLUMNS = {
+      "Route", "Calls", "Errors", "Cancelled", "In flight", "Messages",
+      "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms", "Request chars", "Response chars"};
+  private static final String[] SLOW_COLUMNS = {
+      "Time", "Route", "ms", "Request chars", "Response chars", "Error", "Request"};
+
+  private final BridgeMetrics metrics_;
+  private final DefaultTableModel routes_ = new ReadOnlyTableModel(ROUTE_COLUMNS);
+  private final DefaultTableModel slowQueries_ = new ReadOnlyTableModel(SLOW_COLUMNS);
+  private final SimpleDateFormat timeFormat_ = new SimpleDateFormat("HH:mm:ss.SSS");
+
+  public BridgeMetricsDialog(Frame owner, BridgeMetrics metrics) {
+    super(owner, "Bridge metrics", false);
+    metrics_ = metrics;
+
+    setLayout(new BorderLayout());
+    setSize(1000, 500);
+    setLocation(owner.getLocation().x + 20, owner.getLocation().y + 20);
+
+    JButton reset = new JButton("Reset");
+    reset.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        metrics_.reset();
+        refresh();
+      }
+    });
+
+    JButton export = new JButton("Export JSON...");
+    export.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        exportJson();
+      }
+    });
+
+    JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    controls.add(reset);
+    controls.add(export);
+    add(controls, BorderLayout.NORTH);
+
+    JSplitPane tables = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+                                       new JScrollPane(new JTable(routes_)),
+                                       new JScrollPane(new JTable(slowQueries_)));
+    tables.setResizeWeight(0.6);
+    add(tables, BorderLayout.CENTER);
+
+    final Timer timer = new Timer(1000, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+    addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowOpened(WindowEvent e) {
+        timer.start();
+      }
+
+      @Override
+      public void windowClosed(WindowEvent e) {
+        timer.stop();
+      }
+    });
+    setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+    refresh();
+  }
+
+  private void refresh() {
+    List<BridgeMetrics.RouteSnapshot> routes = metrics_.getRoutes();
+    routes_.setRowCount(0);
+    for (BridgeMetrics.RouteSnapshot route : routes) {
+      routes_.addRow(new Object[] {
+          route.getRoute(), route.getCalls(), route.getErrors(), route.getCancelled(),
+          route.getInFlight(), route.getMessages(), millis(route.getMeanMillis()),
+          millis(route.getPercentileMillis(50)), millis(route.getPercentileMillis(90)),
+          millis(route.getPercentileMillis(99)), millis(route.getMaxMillis()),
+          route.getRequestChars(), route.getResponseChars()});
+    }
+
+    slowQueries_.setRowCount(0);
+    for (BridgeMetrics.SlowQuery query : metrics_.getSlowQueries()) {
+      slowQueries_.addRow(new Object[] {
+          timeFormat_.format(new Date(query.getTime())), query.getRoute(), millis(query.getMillis()),
+          query.getRequestChars(), query.getResponseChars(),
+          query.getErrorCode() != 0 ? String.valueOf(query.getErrorCode()) : "",
+          query.getExcerpt()});
+    }
+  }
+
+  private static String millis(double millis) {
+    return String.format("%.1f", millis);
+  }
+
+  private void exportJson() {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setSelectedFile(new File("bridge-metrics.json"));
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+      return;
+    try {
+      metrics_.exportJson(chooser.getSelectedFile());
+    } catch (IOException e) {
+      JOptionPane.showMessageDialog(this, "Export failed: " + e.getMessage());
+    }
+  }
+
+  private static class ReadOnlyTableModel extends DefaultTableModel {
+    ReadOnlyTableModel(String[] columns) {
+      super(columns, 0);
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package org.egreen.richdesktop.ui.dialog;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+
+import org.egreen.richdesktop.ui.waterfall.Navigation;
+import org.egreen.richdesktop.ui.waterfall.ResourceTiming;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
+
+/**
+ * Shows the waterfall of a recorded navigation: for every request the time
+ * until the server picked it up (gray) and the time the server spent on it
+ * (blue); the red line is the end of the page load.
+ */
+@SuppressWarnings("serial")
+public class WaterfallDialog extends JDialog {
+  private static final int ROW_HEIGHT = 18;
+  private static final int LABEL_WIDTH = 320;
+
+  private final WaterfallRecorder recorder_;
+  private final JComboBox<Navigation> navigations_ = new JComboBox<>();
+  private final WaterfallPanel panel_ = new WaterfallPanel();
+
+  public WaterfallDialog(Frame owner, WaterfallRecorder recorder) {
+    super(owner, "Page load waterfall", false);
+    recorder_ = recorder;
+
+    setLayout(new BorderLayout());
+    setSize(900, 500);
+    setLocation(owner.getLocation().x + 20, owner.getLocation().y + 20);
+
+    navigations_.setRenderer(new DefaultListCellRenderer() {
+      @Override
+      public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                    boolean isSelected, boolean cellHasFocus) {
+        String text = "";
+        if (value instanceof Navigation) {
+          Navigation navigation = (Navigation) value;
+          double duration = navigation.toMillis(navigation.getEnd());
+          text = "#" + navigation.getId() + " " + navigation.getUrl()
+              + (duration >= 0 ? String.format(" (%.1f ms)", duration) : " (loading)");
+        }
+        return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+      }
+    });
+    navigations_.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        panel_.setNavigation((Navigation) navigations_.getSelectedItem());
+      }
+    });
+
+    JButton refresh = new JButton("Refresh");
+    refresh.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+
+    JButton export = new JButton("Export JSON...");
+    export.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        exportJson();
+      }
+    });
+
+    JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    controls.add(navigations_);
+    controls.add(refresh);
+    controls.add(export);
+    add(controls, BorderLayout.NORTH);
+    add(new JScrollPane(panel_), BorderLayout.CENTER);
+
+    refresh();
+  }
+
+  private void refresh() {
+    List<Navigation> navigations = recorder_.getNavigations();
+    Collections.reverse(navigations);
+    navigations_.removeAllItems();
+    for (Navigation navigation : navigations)
+      navigations_.addItem(navigation);
+    panel_.setNavigation(navigations.isEmpty() ? null : navigations.get(0));
+  }
+
+  private void exportJson() {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setSelectedFile(new File("waterfall.json"));
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+      return;
+    try {
+      recorder_.exportJson(chooser.getSelectedFile());
+    } catch (IOException e) {
+      JOptionPane.showMessageDialog(this, "Export failed: " + e.getMessage());
+    }
+  }
+
+  private static class WaterfallPanel extends JComponent {
+    private Navigation navigation_;
+    private List<ResourceTiming> resources_ = Collections.emptyList();
+
+    void setNavigation(Navigation navigation) {
+      navigation_ = navigation;
+      resources_ = navigation != null ? navigation.getResources()
+                                      : Collections.<ResourceTiming>emptyList();
+      setPreferredSize(new Dimension(LABEL_WIDTH + 400, (resources_.size() + 1) * ROW_HEIGHT));
+      revalidate();
+      repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, getWidth(), getHeight());
+      if (navigation_ == null)
+        return;
+
+      // scale to the latest event of the navigation
+      double total = Math.max(1, navigation_.toMillis(navigation_.getEnd()));
+      for (ResourceTiming resource : resources_) {
+        total = Math.max(total, navigation_.toMillis(resource.getServerEnd()));
+        total = Math.max(total, navigation_.toMillis(resource.getBrowserStart()));
+      }
+      double scale = (getWidth() - LABEL_WIDTH - 10) / total;
+
+      int y = 0;
+      for (ResourceTiming resource : resources_) {
+        double browserStart = navigation_.toMillis(resource.getBrowserStart());
+        double serverStart = navigation_.toMillis(resource.getServerStart());
+        double serverEnd = navigation_.toMillis(resource.getServerEnd());
+
+        g.setColor(Color.BLACK);
+        String label = resource.getUrl();
+        if (label.length() > 50)
+          label = "..." + label.substring(label.length() - 47);
+        g.drawString(label, 4, y + ROW_HEIGHT - 5);
+
+        if (browserStart >= 0 && serverStart >= 0) {
+          g.setColor(Color.LIGHT_GRAY);
+          g.fillRect(x(browserStart, scale), y + 4,
+                     Math.max(1, (int) ((serverStart - browserStart) * scale)), ROW_HEIGHT - 8);
+        } else if (browserStart >= 0) {
+          // never reached the server, e.g. served from the browser cache
+          g.setColor(Color.GRAY);
+          g.drawLine(x(browserStart, scale), y + 4, x(browserStart, scale), y + ROW_HEIGHT - 4);
+        }
+        if (serverStart >= 0 && serverEnd >= 0) {
+          g.setColor(new Color(0x33, 0x66, 0xcc));
+          g.fillRect(x(serverStart, scale), y + 4,
+                     Math.max(1, (int) ((serverEnd - serverStart) * scale)), ROW_HEIGHT - 8);
+          g.setColor(Color.BLACK);
+          g.drawString(String.format("%.1f ms", serverEnd - serverStart),
+                       x(serverEnd, scale) + 4, y + ROW_HEIGHT - 5);
+        }
+        y += ROW_HEIGHT;
+      }
+
+      double end = navigation_.toMillis(navigation_.getEnd());
+      if (end >= 0) {
+        g.setColor(Color.RED);
+        g.drawLine(x(end, scale), 0, x(end, scale), getHeight());
+      }
+    }
+
+    private static int x(double millis, double scale) {
+      return LABEL_WIDTH + (int) (millis * scale);
+    }
+  }
+}
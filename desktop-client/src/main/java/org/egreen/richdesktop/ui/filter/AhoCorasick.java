@@ -0,0 +1,179 @@
+package org.egreen.richdesktop.ui.filter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over bytes, finding any of a set of patterns in a
+ * single pass over the input, independent of the number of patterns.
+ * <p/>
+ * The failure links are folded into a complete transition table (256
+ * entries per state), so matching costs one array lookup per byte. The
+ * table takes 1KB per state, i.e. per distinct pattern prefix, which is
+ * fine for rule sets of a few hundred short patterns; large sets, like the
+ * URL filter rules, use {@link SparseAhoCorasick}.
+ * <p/>
+ * The automaton is immutable and can be shared between threads; each scan
+ * uses its own {@link Matcher}, which keeps its state between chunks, so
+ * patterns spanning chunk boundaries are found as well.
+ */
+public final class AhoCorasick {
+    private static final int ALPHABET = 256;
+    private static final byte[] ASCII_LOWER = new byte[ALPHABET];
+
+    static {
+        for (int i = 0; i < ALPHABET; i++) {
+            ASCII_LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private final int patternCount;
+    private final boolean ignoreCase;
+    // next state for (state << 8 | byte)
+    private final int[] transitions;
+    // per state: index of a pattern ending there, or -1
+    private final int[] matches;
+
+    /**
+     * @param patterns   non-empty patterns; matches are reported by index
+     * @param ignoreCase fold ASCII letters of patterns and input
+     */
+    public AhoCorasick(List<byte[]> patterns, boolean ignoreCase) {
+        this.patternCount = patterns.size();
+        this.ignoreCase = ignoreCase;
+
+        // trie, states numbered in insertion order, 0 is the root
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            maxStates += pattern.length;
+        }
+        int[] table = new int[maxStates * ALPHABET];
+        Arrays.fill(table, -1);
+        int[] output = new int[maxStates];
+        Arrays.fill(output, -1);
+        int states = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p)) {
+                int index = state << 8 | fold(b);
+                if (table[index] < 0) {
+                    table[index] = states++;
+                }
+                state = table[index];
+            }
+            if (output[state] < 0) {
+                output[state] = p;
+            }
+        }
+
+        // breadth first: the failure state of each state is complete before
+        // its children are visited, so missing transitions can be copied
+        int[] failure = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = table[c];
+            if (child < 0) {
+                table[c] = 0;
+            } else {
+                failure[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int fail = failure[state];
+            if (output[state] < 0) {
+                // a shorter pattern ending here, e.g. "he" inside "she"
+                output[state] = output[fail];
+            }
+            for (int c = 0; c < ALPHABET; c++) {
+                int index = state << 8 | c;
+                int child = table[index];
+                if (child < 0) {
+                    table[index] = table[fail << 8 | c];
+                } else {
+                    failure[child] = table[fail << 8 | c];
+                    queue.add(child);
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(table, states * ALPHABET);
+        this.matches = Arrays.copyOf(output, states);
+    }
+
+    private int fold(byte b) {
+        return (ignoreCase ? ASCII_LOWER[b & 0xFF] : b) & 0xFF;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return matches.length;
+    }
+
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    /**
+     * @return index of a pattern found in <code>b</code>, or -1
+     */
+    public int find(byte[] b, int off, int len) {
+        return matcher().find(b, off, len);
+    }
+
+    /**
+     * Scan state of a single input, not thread-safe.
+     */
+    public final class Matcher {
+        private int state;
+
+        private Matcher() {
+        }
+
+        /**
+         * Continue the scan with the next chunk of the input.
+         *
+         * @return index of the first pattern ending in this chunk, or -1
+         */
+        public int find(byte[] b, int off, int len) {
+            int[] next = transitions;
+            int s = state;
+            int end = off + len;
+            if (ignoreCase) {
+                byte[] lower = ASCII_LOWER;
+                for (int i = off; i < end; i++) {
+                    s = next[s << 8 | (lower[b[i] & 0xFF] & 0xFF)];
+                    if (matches[s] >= 0) {
+                        state = s;
+                        return matches[s];
+                    }
+                }
+            } else {
+                for (int i = off; i < end; i++) {
+                    s = next[s << 8 | (b[i] & 0xFF)];
+                    if (matches[s] >= 0) {
+                        state = s;
+                        return matches[s];
+                    }
+                }
+            }
+            state = s;
+            return -1;
+        }
+
+        /**
+         * Start over with a new input.
+         */
+        public void reset() {
+            state = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.egreen.richdesktop.ui.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Host names keyed by their labels in reverse order ("com", "example",
+ * "ads"), so a lookup walks the labels of a host from the right and finds a
+ * rule for "example.com" also for "ads.example.com", in time proportional
+ * to the number of labels, whatever the number of rules.
+ * <p/>
+ * Filled once, then read-only and safe to share between threads.
+ */
+final class DomainTrie {
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Add a domain, which matches itself and all its subdomains.
+     */
+    void add(String domain, int value) {
+        Node node = root;
+        int end = domain.length();
+        while (end > 0) {
+            int dot = domain.lastIndexOf('.', end - 1);
+            String label = domain.substring(dot + 1, end);
+            Node child = node.children.get(label);
+            if (child == null) {
+                child = new Node();
+                node.children.put(label, child);
+            }
+            node = child;
+            end = dot;
+        }
+        if (node.value < 0) {
+            node.value = value;
+            size++;
+        }
+    }
+
+    /**
+     * @param host lower case host name
+     * @return the value of the shortest domain matching <code>host</code>, or -1
+     */
+    int find(String host, int start, int end) {
+        Node node = root;
+        while (end > start) {
+            int dot = host.lastIndexOf('.', end - 1);
+            if (dot < start) {
+                dot = start - 1;
+            }
+            node = node.children.get(host.substring(dot + 1, end));
+            if (node == null) {
+                return -1;
+            }
+            if (node.value >= 0) {
+                return node.value;
+            }
+            end = dot;
+        }
+        return -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        int value = -1;
+    }
+}
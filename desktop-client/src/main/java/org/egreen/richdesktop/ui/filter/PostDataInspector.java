@@ -0,0 +1,179 @@
+package org.egreen.richdesktop.ui.filter;
+
+import org.cef.network.CefPostData;
+import org.cef.network.CefPostDataElement;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Checks POST bodies against a set of {@link PostDataRule}s. The rules are
+ * compiled into one Aho-Corasick automaton per case mode, and each element
+ * is streamed through them once, without decoding it to a String:
+ * <ul>
+ * <li>byte elements are copied out of CEF into a per-thread scratch buffer,
+ * which is only replaced by a larger array for elements above
+ * {@value #SCRATCH_SIZE} bytes</li>
+ * <li>file elements (uploads) are read in {@value #SCRATCH_SIZE} byte chunks,
+ * so they are never held in memory</li>
+ * </ul>
+ * The matchers run across element boundaries, as the elements form one body.
+ * Instances are immutable and thread-safe.
+ */
+public class PostDataInspector {
+    public static final int SCRATCH_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SCRATCH_SIZE];
+        }
+    };
+
+    private final List<PostDataRule> caseSensitiveRules = new ArrayList<>();
+    private final List<PostDataRule> ignoreCaseRules = new ArrayList<>();
+    private final AhoCorasick caseSensitive;
+    private final AhoCorasick ignoreCase;
+
+    public PostDataInspector(List<PostDataRule> rules) {
+        List<byte[]> sensitivePatterns = new ArrayList<>();
+        List<byte[]> ignoreCasePatterns = new ArrayList<>();
+        for (PostDataRule rule : rules) {
+            if (rule.isIgnoreCase()) {
+                ignoreCaseRules.add(rule);
+                ignoreCasePatterns.add(rule.getPattern());
+            } else {
+                caseSensitiveRules.add(rule);
+                sensitivePatterns.add(rule.getPattern());
+            }
+        }
+        caseSensitive = sensitivePatterns.isEmpty() ? null : new AhoCorasick(sensitivePatterns, false);
+        ignoreCase = ignoreCasePatterns.isEmpty() ? null : new AhoCorasick(ignoreCasePatterns, true);
+    }
+
+    /**
+     * @return an inspector for the rules of package.json
+     */
+    public static PostDataInspector load() {
+        try {
+            return new PostDataInspector(PostDataRule.load());
+        } catch (IOException e) {
+            System.err.println("Failed to read the post data rules: " + e);
+            return new PostDataInspector(new ArrayList<PostDataRule>());
+        }
+    }
+
+    /**
+     * @return an inspector checking only the rules, which apply to
+     * sub-resource requests
+     */
+    public PostDataInspector forResources() {
+        List<PostDataRule> rules = new ArrayList<>();
+        for (PostDataRule rule : caseSensitiveRules) {
+            if (rule.isResources()) {
+                rules.add(rule);
+            }
+        }
+        for (PostDataRule rule : ignoreCaseRules) {
+            if (rule.isResources()) {
+                rules.add(rule);
+            }
+        }
+        return new PostDataInspector(rules);
+    }
+
+    public boolean isEmpty() {
+        return caseSensitive == null && ignoreCase == null;
+    }
+
+    /**
+     * @return the first rule matching the body, or <code>null</code>
+     */
+    public PostDataRule inspect(CefPostData postData) {
+        if (postData == null || isEmpty()) {
+            return null;
+        }
+        Vector<CefPostDataElement> elements = new Vector<CefPostDataElement>();
+        postData.getElements(elements);
+
+        Scan scan = new Scan();
+        for (CefPostDataElement element : elements) {
+            PostDataRule match;
+            switch (element.getType()) {
+                case PDE_TYPE_BYTES:
+                    match = scanBytes(element, scan);
+                    break;
+                case PDE_TYPE_FILE:
+                    match = scanFile(element.getFile(), scan);
+                    break;
+                default:
+                    match = null;
+            }
+            if (match != null) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private PostDataRule scanBytes(CefPostDataElement element, Scan scan) {
+        int count = element.getBytesCount();
+        if (count <= 0) {
+            return null;
+        }
+        // CEF can only copy an element as a whole
+        byte[] buffer = SCRATCH.get();
+        if (count > buffer.length) {
+            buffer = new byte[count];
+        }
+        int read = element.getBytes(count, buffer);
+        return read > 0 ? scan.find(buffer, 0, read) : null;
+    }
+
+    private PostDataRule scanFile(String file, Scan scan) {
+        byte[] buffer = SCRATCH.get();
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                PostDataRule match = scan.find(buffer, 0, read);
+                if (match != null) {
+                    return match;
+                }
+            }
+        } catch (IOException e) {
+            // CEF fails the upload itself
+            System.err.println("Failed to inspect upload " + file + ": " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Matcher state over all elements of one body.
+     */
+    private class Scan {
+        private final AhoCorasick.Matcher caseSensitiveMatcher =
+                caseSensitive != null ? caseSensitive.matcher() : null;
+        private final AhoCorasick.Matcher ignoreCaseMatcher =
+                ignoreCase != null ? ignoreCase.matcher() : null;
+
+        PostDataRule find(byte[] b, int off, int len) {
+            if (caseSensitiveMatcher != null) {
+                int match = caseSensitiveMatcher.find(b, off, len);
+                if (match >= 0) {
+                    return caseSensitiveRules.get(match);
+                }
+            }
+            if (ignoreCaseMatcher != null) {
+                int match = ignoreCaseMatcher.find(b, off, len);
+                if (match >= 0) {
+                    return ignoreCaseRules.get(match);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.egreen.richdesktop.ui.filter;
+
+import org.egreen.richdesktop.ui.resource.PackageJson;
+import org.eclipse.jetty.util.ajax.JSON;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A keyword, which rejects a request if its POST body contains it. Rules
+ * are read from the "postDataRules" section of the web-app's package.json:
+ * <pre>
+ * "postDataRules": [
+ *     {"name": "ignore", "pattern": "ignore", "ignoreCase": false,
+ *      "resources": false, "message": "The request was rejected ..."}
+ * ]
+ * </pre>
+ * The pattern is matched against the raw body bytes (UTF-8), i.e. form
+ * values are still URL-encoded. Rules apply to navigations; with
+ * "resources" they also reject sub-resource requests like XHR posts.
+ */
+public final class PostDataRule {
+    public static final String SECTION = "postDataRules";
+
+    private static final List<PostDataRule> DEFAULT_RULES = Collections.singletonList(
+            new PostDataRule("ignore", "ignore", false, false,
+                             "The request was rejected because you've entered \"ignore\" into the form."));
+
+    private final String name;
+    private final byte[] pattern;
+    private final boolean ignoreCase;
+    private final boolean resources;
+    private final String message;
+
+    public PostDataRule(String name, String pattern, boolean ignoreCase, boolean resources, String message) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("Empty pattern of rule " + name);
+        }
+        this.name = name;
+        this.pattern = pattern.getBytes(StandardCharsets.UTF_8);
+        this.ignoreCase = ignoreCase;
+        this.resources = resources;
+        this.message = message;
+    }
+
+    /**
+     * @return the rules of package.json, the built-in "ignore" rule if it
+     * has none
+     */
+    public static List<PostDataRule> load() throws IOException {
+        String json = PackageJson.read();
+        return json != null ? parse(json) : DEFAULT_RULES;
+    }
+
+    public static List<PostDataRule> parse(String json) {
+        Object parsed = JSON.parse(json);
+        if (!(parsed instanceof Map) || !(((Map<?, ?>) parsed).get(SECTION) instanceof Object[])) {
+            return DEFAULT_RULES;
+        }
+
+        List<PostDataRule> rules = new ArrayList<>();
+        for (Object item : (Object[]) ((Map<?, ?>) parsed).get(SECTION)) {
+            if (!(item instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> rule = (Map<?, ?>) item;
+            Object pattern = rule.get("pattern");
+            if (!(pattern instanceof String) || ((String) pattern).isEmpty()) {
+                System.err.println("Ignoring post data rule without pattern: " + JSON.toString(rule));
+                continue;
+            }
+            Object name = rule.get("name");
+            Object message = rule.get("message");
+            rules.add(new PostDataRule(name instanceof String ? (String) name : (String) pattern,
+                                       (String) pattern,
+                                       Boolean.TRUE.equals(rule.get("ignoreCase")),
+                                       Boolean.TRUE.equals(rule.get("resources")),
+                                       message instanceof String ? (String) message
+                                               : "The request was rejected by rule \"" + pattern + "\"."));
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    byte[] getPattern() {
+        return pattern;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * @return <code>true</code> if sub-resource requests are checked as well
+     */
+    public boolean isResources() {
+        return resources;
+    }
+
+    /**
+     * @return the message shown when a navigation is rejected
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
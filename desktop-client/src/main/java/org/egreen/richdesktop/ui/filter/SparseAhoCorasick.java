@@ -0,0 +1,193 @@
+package org.egreen.richdesktop.ui.filter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton for large pattern sets, e.g. thousands of URL
+ * filter rules. Unlike {@link AhoCorasick} it doesn't fold the failure links
+ * into a dense table: each state keeps only its own transitions, sorted by
+ * byte, in shared arrays, so a state takes about 17 bytes instead of 1KB.
+ * Missing transitions follow the failure links, which costs a few binary
+ * searches per byte; only the root has a full table, as most bytes of an
+ * input leave from it.
+ * <p/>
+ * Immutable and thread-safe.
+ */
+final class SparseAhoCorasick {
+    private static final int ALPHABET = 256;
+
+    private final int patternCount;
+    private final boolean ignoreCase;
+    // next state of the root for every byte, 0 if none
+    private final int[] rootNext = new int[ALPHABET];
+    // transitions of state s: labels and targets from edgeStart[s] to edgeStart[s + 1]
+    private final int[] edgeStart;
+    private final byte[] labels;
+    private final int[] targets;
+    private final int[] failure;
+    // per state: index of a pattern ending there or at a failure state, or -1
+    private final int[] matches;
+
+    /**
+     * @param patterns   non-empty patterns; matches are reported by index
+     * @param ignoreCase fold ASCII letters of patterns and input
+     */
+    SparseAhoCorasick(List<byte[]> patterns, boolean ignoreCase) {
+        this.patternCount = patterns.size();
+        this.ignoreCase = ignoreCase;
+
+        // trie as child/sibling lists, states numbered in insertion order
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            maxStates += pattern.length;
+        }
+        int[] firstChild = new int[maxStates];
+        int[] nextSibling = new int[maxStates];
+        int[] label = new int[maxStates];
+        int[] output = new int[maxStates];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(output, -1);
+        int states = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p)) {
+                int c = fold(b & 0xFF);
+                int child = child(firstChild, nextSibling, label, state, c);
+                if (child < 0) {
+                    child = states++;
+                    label[child] = c;
+                    nextSibling[child] = firstChild[state];
+                    firstChild[state] = child;
+                }
+                state = child;
+            }
+            if (output[state] < 0) {
+                output[state] = p;
+            }
+        }
+
+        // sorted transitions of every state
+        edgeStart = new int[states + 1];
+        for (int s = 0; s < states; s++) {
+            for (int child = firstChild[s]; child >= 0; child = nextSibling[child]) {
+                edgeStart[s + 1]++;
+            }
+        }
+        for (int s = 0; s < states; s++) {
+            edgeStart[s + 1] += edgeStart[s];
+        }
+        labels = new byte[states - 1];
+        targets = new int[states - 1];
+        for (int s = 0; s < states; s++) {
+            int end = edgeStart[s];
+            for (int child = firstChild[s]; child >= 0; child = nextSibling[child]) {
+                // insertion sort, states have few transitions
+                int i = end++;
+                while (i > edgeStart[s] && (labels[i - 1] & 0xFF) > label[child]) {
+                    labels[i] = labels[i - 1];
+                    targets[i] = targets[i - 1];
+                    i--;
+                }
+                labels[i] = (byte) label[child];
+                targets[i] = child;
+            }
+        }
+        for (int i = edgeStart[0]; i < edgeStart[1]; i++) {
+            rootNext[labels[i] & 0xFF] = targets[i];
+        }
+
+        // breadth first, so the failure state of each state is complete
+        // before its children are visited
+        failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int i = edgeStart[0]; i < edgeStart[1]; i++) {
+            queue[tail++] = targets[i];
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            if (output[state] < 0) {
+                // a shorter pattern ending here, e.g. "he" inside "she"
+                output[state] = output[failure[state]];
+            }
+            for (int i = edgeStart[state]; i < edgeStart[state + 1]; i++) {
+                int child = targets[i];
+                failure[child] = next(failure[state], labels[i] & 0xFF);
+                queue[tail++] = child;
+            }
+        }
+        this.matches = Arrays.copyOf(output, states);
+    }
+
+    private static int child(int[] firstChild, int[] nextSibling, int[] label, int state, int c) {
+        for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+            if (label[child] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private int fold(int c) {
+        return ignoreCase && c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Goto function with failure links.
+     */
+    private int next(int state, int c) {
+        while (state != 0) {
+            int lo = edgeStart[state];
+            int hi = edgeStart[state + 1] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int l = labels[mid] & 0xFF;
+                if (l < c) {
+                    lo = mid + 1;
+                } else if (l > c) {
+                    hi = mid - 1;
+                } else {
+                    return targets[mid];
+                }
+            }
+            state = failure[state];
+        }
+        return rootNext[c];
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return matches.length;
+    }
+
+    /**
+     * Scan the chars <code>start</code> to <code>end</code> of an ASCII
+     * string, e.g. a URL, without converting it to bytes. Other chars never
+     * match.
+     *
+     * @return index of a pattern found, or -1
+     */
+    public int find(CharSequence s, int start, int end) {
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= ALPHABET) {
+                state = 0;
+                continue;
+            }
+            state = next(state, fold(c));
+            if (matches[state] >= 0) {
+                return matches[state];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,272 @@
+package org.egreen.richdesktop.ui.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled set of URL block rules, in a subset of the Adblock Plus syntax:
+ * <pre>
+ * ! comment
+ * ||tracker.example.com^   blocks the host and its subdomains
+ * tracker.example.com      the same
+ * /analytics.js            blocks URLs whose path or query contains it
+ * @@||cdn.example.com      exception, never blocks matching URLs
+ * </pre>
+ * Host rules are compiled into reversed-domain tries, path rules into
+ * case-insensitive, sparse Aho-Corasick automata, so checking a URL takes a few
+ * hash lookups and one pass over its path, whatever the number of rules.
+ * Rules with wildcards or options ("*", "$") are not supported and skipped.
+ * <p/>
+ * Immutable apart from the hit counters; thread-safe.
+ */
+public final class UrlFilter {
+    public static final UrlFilter EMPTY = parse(Collections.<String>emptyList(), "");
+
+    private final List<Rule> rules;
+    private final DomainTrie blockedHosts = new DomainTrie();
+    private final DomainTrie allowedHosts = new DomainTrie();
+    private final SparseAhoCorasick blockedPaths;
+    private final SparseAhoCorasick allowedPaths;
+    // rule index of each path pattern
+    private final int[] blockedPathRules;
+    private final int[] allowedPathRules;
+    private final int skipped;
+
+    private UrlFilter(List<Rule> rules, int skipped) {
+        this.rules = Collections.unmodifiableList(rules);
+        this.skipped = skipped;
+
+        List<byte[]> blockPatterns = new ArrayList<>();
+        List<byte[]> allowPatterns = new ArrayList<>();
+        List<Integer> blockIndexes = new ArrayList<>();
+        List<Integer> allowIndexes = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            if (rule.host != null) {
+                (rule.allow ? allowedHosts : blockedHosts).add(rule.host, i);
+            } else {
+                byte[] pattern = rule.path.getBytes(StandardCharsets.ISO_8859_1);
+                (rule.allow ? allowPatterns : blockPatterns).add(pattern);
+                (rule.allow ? allowIndexes : blockIndexes).add(i);
+            }
+        }
+        blockedPaths = blockPatterns.isEmpty() ? null : new SparseAhoCorasick(blockPatterns, true);
+        allowedPaths = allowPatterns.isEmpty() ? null : new SparseAhoCorasick(allowPatterns, true);
+        blockedPathRules = toArray(blockIndexes);
+        allowedPathRules = toArray(allowIndexes);
+    }
+
+    /**
+     * @param source name of the rule file for warnings
+     */
+    public static UrlFilter parse(List<String> lines, String source) {
+        List<Rule> rules = new ArrayList<>();
+        int skipped = 0;
+        int lineNumber = 0;
+        for (String line : lines) {
+            lineNumber++;
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("!") || text.startsWith("#") || text.startsWith("[")) {
+                continue;
+            }
+            Rule rule = Rule.parse(text, lineNumber);
+            if (rule == null) {
+                skipped++;
+            } else {
+                rules.add(rule);
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " unsupported URL filter rules of " + source);
+        }
+        return new UrlFilter(rules, skipped);
+    }
+
+    /**
+     * @return the rule blocking <code>url</code>, or <code>null</code> if it
+     * may be loaded
+     */
+    public Rule check(String url) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        int hostStart;
+        if (url.startsWith("https://")) {
+            hostStart = 8;
+        } else if (url.startsWith("http://")) {
+            hostStart = 7;
+        } else {
+            return null;
+        }
+
+        int pathStart = url.length();
+        for (int i = hostStart; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                pathStart = i;
+                break;
+            }
+        }
+        int pathEnd = url.indexOf('#', pathStart);
+        if (pathEnd < 0) {
+            pathEnd = url.length();
+        }
+        int hostEnd = pathStart;
+        int at = url.lastIndexOf('@', hostEnd - 1);
+        if (at >= hostStart) {
+            hostStart = at + 1;
+        }
+        int colon = url.lastIndexOf(':', hostEnd - 1);
+        if (colon >= hostStart && url.charAt(hostEnd - 1) != ']') {
+            hostEnd = colon;
+        }
+        String host = url.substring(hostStart, hostEnd).toLowerCase();
+
+        Rule block = null;
+        int index = blockedHosts.find(host, 0, host.length());
+        if (index >= 0) {
+            block = rules.get(index);
+        } else if (blockedPaths != null) {
+            index = blockedPaths.find(url, pathStart, pathEnd);
+            if (index >= 0) {
+                block = rules.get(blockedPathRules[index]);
+            }
+        }
+        if (block == null) {
+            return null;
+        }
+
+        index = allowedHosts.find(host, 0, host.length());
+        if (index < 0 && allowedPaths != null) {
+            index = allowedPaths.find(url, pathStart, pathEnd);
+            if (index >= 0) {
+                index = allowedPathRules[index];
+            }
+        }
+        if (index >= 0) {
+            rules.get(index).hits.incrementAndGet();
+            return null;
+        }
+        block.hits.incrementAndGet();
+        return block;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return number of lines, which were skipped as unsupported
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Continue the hit counts of the rules of <code>previous</code>, which
+     * are still present, after the rule file was reloaded.
+     */
+    public void inheritHits(UrlFilter previous) {
+        Map<String, Rule> previousRules = new HashMap<>();
+        for (Rule rule : previous.rules) {
+            previousRules.put(rule.text, rule);
+        }
+        for (Rule rule : rules) {
+            Rule old = previousRules.get(rule.text);
+            if (old != null) {
+                rule.hits.addAndGet(old.getHits());
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * A single line of the rule file.
+     */
+    public static final class Rule {
+        private final String text;
+        private final int lineNumber;
+        private final boolean allow;
+        // either a host or a path pattern
+        private final String host;
+        private final String path;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Rule(String text, int lineNumber, boolean allow, String host, String path) {
+            this.text = text;
+            this.lineNumber = lineNumber;
+            this.allow = allow;
+            this.host = host;
+            this.path = path;
+        }
+
+        /**
+         * @return the rule, or <code>null</code> if it is not supported
+         */
+        static Rule parse(String text, int lineNumber) {
+            String spec = text;
+            boolean allow = spec.startsWith("@@");
+            if (allow) {
+                spec = spec.substring(2);
+            }
+            if (spec.indexOf('*') >= 0 || spec.indexOf('$') >= 0 || spec.isEmpty()) {
+                return null;
+            }
+            if (spec.startsWith("/")) {
+                // a regular expression in ABP syntax
+                if (spec.length() > 1 && spec.endsWith("/")) {
+                    return null;
+                }
+                return new Rule(text, lineNumber, allow, null, spec.toLowerCase());
+            }
+
+            if (spec.startsWith("||")) {
+                spec = spec.substring(2);
+            }
+            if (spec.endsWith("^")) {
+                spec = spec.substring(0, spec.length() - 1);
+            }
+            if (spec.isEmpty() || spec.indexOf('/') >= 0 || spec.indexOf('^') >= 0
+                    || spec.indexOf('|') >= 0 || spec.indexOf('.') < 0) {
+                return null;
+            }
+            return new Rule(text, lineNumber, allow, spec.toLowerCase(), null);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return <code>true</code> for exceptions ("@@")
+         */
+        public boolean isAllow() {
+            return allow;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.egreen.richdesktop.ui.filter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Blocks requests by the {@link UrlFilter} rules of a text file, one rule
+ * per line. The file is watched and recompiled as soon as it changes; the
+ * requests meanwhile keep being checked against the previous rules, hit
+ * counts are carried over.
+ * <p/>
+ * The default file is ./url-filters.txt, another one is set with
+ * -Dbuntty.urlFilters=path. Without the file nothing is blocked, until it
+ * is created.
+ */
+public class UrlFilterEngine implements Closeable {
+    public static final String DEFAULT_FILE = "./url-filters.txt";
+
+    // editors write files in several steps, wait for them to finish
+    private static final long RELOAD_DELAY = 200;
+
+    private static UrlFilterEngine defaultEngine;
+    private static boolean defaultEngineOpened;
+
+    private final File file;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile UrlFilter filter = UrlFilter.EMPTY;
+
+    public UrlFilterEngine(File file) throws IOException {
+        this.file = file.getAbsoluteFile();
+        reload();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getAbsoluteFile().getParentFile().toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "UrlFilterEngine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the engine for the default rule file, or <code>null</code> if it
+     * can't be watched
+     */
+    public static synchronized UrlFilterEngine getDefault() {
+        if (!defaultEngineOpened) {
+            defaultEngineOpened = true;
+            try {
+                defaultEngine = new UrlFilterEngine(new File(System.getProperty("buntty.urlFilters", DEFAULT_FILE)));
+            } catch (IOException e) {
+                System.err.println("Failed to load the URL filter rules: " + e);
+            }
+        }
+        return defaultEngine;
+    }
+
+    /**
+     * @return the rule blocking <code>url</code>, or <code>null</code> if it
+     * may be loaded
+     */
+    public UrlFilter.Rule check(String url) {
+        return filter.check(url);
+    }
+
+    /**
+     * @return the current rules with their hit counts
+     */
+    public UrlFilter getFilter() {
+        return filter;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Recompile the rule file.
+     */
+    public synchronized void reload() {
+        UrlFilter loaded;
+        try {
+            loaded = file.isFile()
+                    ? UrlFilter.parse(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), file.getPath())
+                    : UrlFilter.EMPTY;
+        } catch (IOException e) {
+            // keep the previous rules, e.g. while the file is being replaced
+            System.err.println("Failed to read " + file + ": " + e);
+            return;
+        }
+        loaded.inheritHits(filter);
+        filter = loaded;
+        if (file.isFile()) {
+            System.out.println("Loaded " + loaded.getRules().size() + " URL filter rules from " + file);
+        }
+    }
+
+    private void processEvents() {
+        Path name = file.toPath().getFileName();
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                // on overflow the file might have changed as well
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                    changed = true;
+                }
+            }
+            if (changed) {
+                try {
+                    Thread.sleep(RELOAD_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // events of the same change, which arrived during the delay
+                key.pollEvents();
+                reload();
+            }
+
+            if (!key.reset()) {
+                System.err.println("Stopped watching " + file);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
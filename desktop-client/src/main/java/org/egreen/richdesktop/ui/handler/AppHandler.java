@@ -4,6 +4,8 @@
 
 package org.egreen.richdesktop.ui.handler;
 
+import java.io.IOException;
+
 import org.cef.CefApp;
 import org.cef.browser.CefBrowser;
 import org.cef.callback.CefSchemeHandlerFactory;
@@ -11,15 +13,39 @@ import org.cef.callback.CefSchemeRegistrar;
 import org.cef.handler.CefAppHandlerAdapter;
 import org.cef.handler.CefResourceHandler;
 import org.cef.network.CefRequest;
-import tests.detailed.handler.ClientSchemeHandler;
-import tests.detailed.handler.SearchSchemeHandler;
+import org.egreen.richdesktop.ui.bridge.BinaryTransferRegistry;
+import org.egreen.richdesktop.ui.resource.AssetPack;
+import org.egreen.richdesktop.ui.resource.ResourceProvider;
+import org.egreen.richdesktop.ui.resource.WebResources;
 
 public class AppHandler extends CefAppHandlerAdapter {
+  private final ResourceProvider webResources_;
+
   // We're registering our own schemes to demonstrate how to use
   // CefAppHandler.onRegisterCustomSchemes() in combination with
   // CefApp.registerSchemeHandlerFactory().
   public AppHandler(String[] args) {
     super(args);
+    webResources_ = openWebResources();
+  }
+
+  // The asset pack of the distribution if there is one, the web-app
+  // directory otherwise.
+  private static ResourceProvider openWebResources() {
+    try {
+      AssetPack pack = AssetPack.findDefault();
+      if (pack != null)
+        return pack;
+    } catch (IOException e) {
+      System.err.println("Failed to open the asset pack, serving the web-app directory: " + e);
+    }
+
+    // shared with LocalServer
+    try {
+      return WebResources.getDefault();
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't open the web-app", e);
+    }
   }
 
   // (1) First of all we have to register our custom schemes by implementing
@@ -31,6 +57,10 @@ public class AppHandler extends CefAppHandlerAdapter {
       System.out.println("Added scheme " + SearchSchemeHandler.scheme + "://");
     if (registrar.addCustomScheme(ClientSchemeHandler.scheme, true, false, false))
       System.out.println("Added scheme " + ClientSchemeHandler.scheme + "://");
+    if (registrar.addCustomScheme(AppSchemeHandler.scheme, true, false, false))
+      System.out.println("Added scheme " + AppSchemeHandler.scheme + "://");
+    if (registrar.addCustomScheme(TransferSchemeHandler.scheme, true, false, false))
+      System.out.println("Added scheme " + TransferSchemeHandler.scheme + "://");
   }
 
   // (2) At the next step we have to register a SchemeHandlerFactory which is
@@ -52,6 +82,12 @@ public class AppHandler extends CefAppHandlerAdapter {
     cefApp.registerSchemeHandlerFactory(ClientSchemeHandler.scheme,
                                         ClientSchemeHandler.domain,
                                         new SchemeHandlerFactory());
+    cefApp.registerSchemeHandlerFactory(AppSchemeHandler.scheme,
+                                        AppSchemeHandler.domain,
+                                        new SchemeHandlerFactory());
+    cefApp.registerSchemeHandlerFactory(TransferSchemeHandler.scheme,
+                                        TransferSchemeHandler.domain,
+                                        new SchemeHandlerFactory());
   }
 
   // (3) The SchemeHandlerFactory creates a new ResourceHandler instance for each
@@ -67,6 +103,10 @@ public class AppHandler extends CefAppHandlerAdapter {
         return new SearchSchemeHandler(browser);
       else if (schemeName.equals(ClientSchemeHandler.scheme))
         return new ClientSchemeHandler();
+      else if (schemeName.equals(AppSchemeHandler.scheme))
+        return AppSchemeHandler.create(webResources_, request);
+      else if (schemeName.equals(TransferSchemeHandler.scheme))
+        return new TransferSchemeHandler(BinaryTransferRegistry.getInstance());
       return null;
     }
   } 
@@ -0,0 +1,180 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+import org.egreen.richdesktop.ui.resource.CachePolicy;
+import org.egreen.richdesktop.ui.resource.MimeTypes;
+import org.egreen.richdesktop.ui.resource.ResourceProvider;
+import org.egreen.richdesktop.ui.resource.WebResources;
+import org.egreen.richdesktop.ui.waterfall.ResourceTiming;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
+
+/**
+ * Serves the web-app through the app:// scheme straight from
+ * {@link WebResources} or the asset pack, so no request leaves the browser
+ * process. Content is always sent uncompressed, there is nothing to gain
+ * from compression in-process.
+ * <p/>
+ * Large files of the web-app directory and range requests (media seeking)
+ * are streamed by a {@link FileResourceHandler} instead, see
+ * {@link #create(ResourceProvider, CefRequest)}.
+ */
+public class AppSchemeHandler extends CefResourceHandlerAdapter {
+  public static final String scheme = "app";
+  public static final String domain = "local";
+  public static final String startUrl = scheme + "://" + domain + "/index.html";
+
+  // files of this size and above are streamed rather than loaded into memory
+  public static final long STREAM_THRESHOLD = 8 * 1024 * 1024;
+
+  private final ResourceProvider resources_;
+
+  private int status_;
+  private String mime_type_;
+  private final Map<String, String> headers_ = new HashMap<>();
+  private ByteBuffer data_;
+  private ResourceTiming timing_;
+
+  public AppSchemeHandler(ResourceProvider resources) {
+    resources_ = resources;
+  }
+
+  /**
+   * @return the handler for <code>request</code>: a {@link FileResourceHandler}
+   * for large or ranged requests of files in the web-app directory, an
+   * AppSchemeHandler otherwise
+   */
+  public static CefResourceHandler create(ResourceProvider resources, CefRequest request) {
+    if (resources instanceof WebResources) {
+      String path = toResourcePath(request.getURL());
+      try {
+        File file = path != null ? ((WebResources) resources).findFile(path) : null;
+        if (file != null && (file.length() >= STREAM_THRESHOLD || hasRange(request))) {
+          FileResourceHandler handler = new FileResourceHandler(file, MimeTypes.forPath(path));
+          handler.setHeader("Cache-Control", CachePolicy.cacheControlFor(path));
+          return handler;
+        }
+      } catch (IOException e) {
+        System.err.println("Failed to resolve " + path + ": " + e);
+      }
+    }
+    return new AppSchemeHandler(resources);
+  }
+
+  private static boolean hasRange(CefRequest request) {
+    Map<String, String> headers = new HashMap<>();
+    request.getHeaderMap(headers);
+    for (String name : headers.keySet()) {
+      if (name.equalsIgnoreCase("Range"))
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean processRequest(CefRequest request, CefCallback callback) {
+    Map<String, String> requestHeaders = new HashMap<>();
+    request.getHeaderMap(requestHeaders);
+    timing_ = WaterfallRecorder.getInstance().serverRequestStarted(
+        requestHeaders.get(WaterfallRecorder.HEADER), request.getURL(), request.getMethod(),
+        WaterfallRecorder.SOURCE_APP_SCHEME);
+
+    String path = toResourcePath(request.getURL());
+    WebResources.Entry entry = null;
+    try {
+      if (path != null)
+        entry = resources_.get(path);
+    } catch (IOException e) {
+      System.err.println("Failed to load " + path + ": " + e);
+    }
+
+    if (entry == null) {
+      status_ = 404;
+      mime_type_ = "text/html";
+      data_ = ByteBuffer.wrap(("<html><head><title>Error 404</title></head><body><h1>Error 404</h1>"
+          + "File " + path + " does not exist</body></html>").getBytes(StandardCharsets.UTF_8));
+      callback.Continue();
+      return true;
+    }
+
+    headers_.put("ETag", entry.getETag());
+    headers_.put("Cache-Control", CachePolicy.cacheControlFor(path));
+    mime_type_ = entry.getMimeType();
+
+    if (entry.getETag().equals(requestHeaders.get("If-None-Match"))) {
+      status_ = 304;
+      data_ = ByteBuffer.allocate(0);
+    } else {
+      status_ = 200;
+      data_ = entry.getContent();
+    }
+
+    callback.Continue();
+    return true;
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    response.setStatus(status_);
+    response.setMimeType(mime_type_);
+    if (MimeTypes.isText(mime_type_))
+      headers_.put("Content-Type", mime_type_ + "; charset=utf-8");
+    response.setHeaderMap(headers_);
+    response_length.set(data_.remaining());
+    // the content is copied in-process from here on, it takes no time worth recording
+    WaterfallRecorder.getInstance().serverRequestFinished(timing_, status_, data_.remaining());
+  }
+
+  @Override
+  public boolean readResponse(byte[] data_out,
+                              int bytes_to_read,
+                              IntRef bytes_read,
+                              CefCallback callback) {
+    int transfer_size = Math.min(bytes_to_read, data_.remaining());
+    if (transfer_size <= 0) {
+      bytes_read.set(0);
+      return false;
+    }
+
+    data_.get(data_out, 0, transfer_size);
+    bytes_read.set(transfer_size);
+    return true;
+  }
+
+  /**
+   * Map "app://local/some/file.css?x" to "some/file.css". Directory requests
+   * are mapped to their index.html.
+   */
+  static String toResourcePath(String url) {
+    String path;
+    try {
+      path = new URI(url).getPath();
+    } catch (URISyntaxException e) {
+      return null;
+    }
+    if (path == null)
+      return null;
+
+    while (path.startsWith("/"))
+      path = path.substring(1);
+    if (path.isEmpty() || path.endsWith("/"))
+      path += "index.html";
+    return path;
+  }
+}
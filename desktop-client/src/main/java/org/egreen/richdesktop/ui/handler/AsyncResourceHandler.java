@@ -0,0 +1,120 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cef.callback.CefCallback;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+/**
+ * Base class for resource handlers whose content takes a while to produce,
+ * e.g. pages built from a database. processRequest() returns immediately,
+ * {@link #produce(CefRequest)} runs on a small shared executor and CEF is
+ * told to continue once it's done, so CEF's IO thread is never blocked.
+ * <p/>
+ * The executor is bounded; requests, which don't fit into its queue, are
+ * answered with 503. cancel() interrupts the producing thread, long running
+ * producers should also check {@link #isCancelled()}.
+ */
+public abstract class AsyncResourceHandler extends ByteResponseHandler {
+  public static final int THREADS = 4;
+  public static final int QUEUE_SIZE = 64;
+
+  private static final ThreadPoolExecutor executor_ = new ThreadPoolExecutor(
+      THREADS, THREADS, 30, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+      new ThreadFactory() {
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "AsyncResourceHandler-" + count_.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  static {
+    executor_.allowCoreThreadTimeOut(true);
+  }
+
+  private volatile Future<?> future_;
+  private volatile boolean cancelled_ = false;
+  // written by the producer before callback.Continue(), makes its content visible
+  private volatile boolean done_ = false;
+
+  /**
+   * Produce the response on an executor thread by calling setContent(),
+   * setStatus() and setHeader(). Exceptions result in a 500 response.
+   */
+  protected abstract void produce(CefRequest request) throws Exception;
+
+  protected boolean isCancelled() {
+    return cancelled_;
+  }
+
+  @Override
+  public boolean processRequest(final CefRequest request, final CefCallback callback) {
+    try {
+      future_ = executor_.submit(new Runnable() {
+        @Override
+        public void run() {
+          if (cancelled_)
+            return;
+          try {
+            produce(request);
+          } catch (Exception e) {
+            if (cancelled_)
+              return;
+            System.err.println("Failed to produce " + request.getURL() + ": " + e);
+            setStatus(500);
+            setContent("text/html", "<html><head><title>Error 500</title></head>"
+                + "<body><h1>Error 500</h1>" + e + "</body></html>");
+          }
+          complete(request, callback);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      setStatus(503);
+      setContent("text/html", "<html><head><title>Error 503</title></head>"
+          + "<body><h1>Error 503</h1>Too many pending requests</body></html>");
+      complete(request, callback);
+    }
+    return true;
+  }
+
+  private void complete(CefRequest request, CefCallback callback) {
+    done_ = true;
+    if (!cancelled_)
+      super.processRequest(request, callback);
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    if (!done_) {
+      // not expected before Continue(), answer with an empty error
+      setStatus(500);
+      setContent("text/plain", new byte[0]);
+    }
+    super.getResponseHeaders(response, response_length, redirectUrl);
+  }
+
+  @Override
+  public void cancel() {
+    cancelled_ = true;
+    Future<?> future = future_;
+    if (future != null)
+      future.cancel(true);
+    super.cancel();
+  }
+}
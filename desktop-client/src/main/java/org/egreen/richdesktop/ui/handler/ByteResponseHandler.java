@@ -0,0 +1,108 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+/**
+ * Serves a response body held in memory. Text is encoded to UTF-8 once,
+ * the response length is the exact byte count and readResponse() copies
+ * chunks with System.arraycopy, without allocating anything per chunk.
+ * <p/>
+ * Use it as is for fixed content, or extend it and set the content in
+ * processRequest() before calling super.processRequest().
+ */
+public class ByteResponseHandler extends CefResourceHandlerAdapter {
+  private static final byte[] EMPTY = new byte[0];
+
+  private final Map<String, String> headers_ = new HashMap<>();
+  private byte[] data_ = EMPTY;
+  private String mime_type_ = "text/html";
+  private int status_ = 200;
+  private int offset_ = 0;
+
+  public ByteResponseHandler() {
+  }
+
+  public ByteResponseHandler(String mimeType, String content) {
+    setContent(mimeType, content);
+  }
+
+  /**
+   * @param data served as is, must not be modified afterwards; may be
+   *             shared between handlers
+   */
+  public ByteResponseHandler(String mimeType, byte[] data) {
+    setContent(mimeType, data);
+  }
+
+  /**
+   * Set a text body, which is sent as UTF-8.
+   */
+  protected void setContent(String mimeType, String content) {
+    setContent(mimeType, content.getBytes(StandardCharsets.UTF_8));
+    headers_.put("Content-Type", mimeType + "; charset=utf-8");
+  }
+
+  protected void setContent(String mimeType, byte[] data) {
+    mime_type_ = mimeType;
+    data_ = data;
+    offset_ = 0;
+    headers_.remove("Content-Type");
+  }
+
+  protected void setStatus(int status) {
+    status_ = status;
+  }
+
+  protected void setHeader(String name, String value) {
+    headers_.put(name, value);
+  }
+
+  @Override
+  public boolean processRequest(CefRequest request, CefCallback callback) {
+    offset_ = 0;
+    callback.Continue();
+    return true;
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    response.setStatus(status_);
+    response.setMimeType(mime_type_);
+    if (!headers_.isEmpty())
+      response.setHeaderMap(headers_);
+    response_length.set(data_.length);
+  }
+
+  @Override
+  public boolean readResponse(byte[] data_out,
+                              int bytes_to_read,
+                              IntRef bytes_read,
+                              CefCallback callback) {
+    int transfer_size = Math.min(bytes_to_read, data_.length - offset_);
+    if (transfer_size <= 0) {
+      bytes_read.set(0);
+      return false;
+    }
+
+    System.arraycopy(data_, offset_, data_out, 0, transfer_size);
+    offset_ += transfer_size;
+    bytes_read.set(transfer_size);
+    return true;
+  }
+
+  @Override
+  public void cancel() {
+    offset_ = data_.length;
+  }
+}
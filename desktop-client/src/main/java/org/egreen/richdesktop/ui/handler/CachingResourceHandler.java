@@ -0,0 +1,456 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+import org.egreen.richdesktop.ui.cache.HttpDiskCache;
+
+/**
+ * Loads a GET request of a cached origin through the {@link HttpDiskCache}.
+ * <p/>
+ * Fresh entries are streamed from disk right away. Otherwise the request is
+ * sent from a worker thread, conditionally if the entry has a validator: a
+ * 304 serves the entry, a 200 is streamed to the browser and written to the
+ * cache at the same time, and is added once it has been read completely. If
+ * the origin can't be reached (or fails with 5xx), a stale entry is served
+ * with a "Warning: 111" header, so the application keeps working offline.
+ * <p/>
+ * The worker thread hands the body over in chunks through a small bounded
+ * queue; readResponse() never blocks, it asks CEF to wait and continues it
+ * when the next chunk arrives.
+ */
+public class CachingResourceHandler extends CefResourceHandlerAdapter {
+  public static final int THREADS = 8;
+  public static final int QUEUE_SIZE = 128;
+
+  private static final int CHUNK_SIZE = 32 * 1024;
+  // chunks buffered ahead of the browser
+  private static final int MAX_CHUNKS = 8;
+
+  // not forwarded to the origin; the cache adds its own conditional headers
+  private static final String[] SKIPPED_REQUEST_HEADERS = {
+      "Host", "Connection", "Accept-Encoding", "Range", "If-None-Match",
+      "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range",
+      "X-Waterfall-Id"
+  };
+  private static final String[] SKIPPED_RESPONSE_HEADERS = {
+      "Connection", "Keep-Alive", "Transfer-Encoding", "Content-Length"
+  };
+
+  private static final ThreadPoolExecutor executor_ = new ThreadPoolExecutor(
+      THREADS, THREADS, 30, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+      new ThreadFactory() {
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "CachingResourceHandler-" + count_.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  static {
+    executor_.allowCoreThreadTimeOut(true);
+  }
+
+  private final HttpDiskCache cache_;
+
+  // fresh hits are served by a FileResourceHandler
+  private FileResourceHandler delegate_;
+
+  // response, written by the worker before callback.Continue() and ready_
+  private int status_;
+  private String mime_type_;
+  private final Map<String, String> headers_ = new HashMap<>();
+  private long length_ = -1;
+  private String redirect_url_;
+  private volatile boolean ready_ = false;
+  private volatile boolean cancelled_ = false;
+  private volatile HttpURLConnection connection_;
+
+  // body, guarded by "this"
+  private final ArrayDeque<ByteBuffer> chunks_ = new ArrayDeque<>();
+  private ByteBuffer current_;
+  private boolean eof_ = false;
+  private CefCallback pending_read_;
+
+  public CachingResourceHandler(HttpDiskCache cache) {
+    cache_ = cache;
+  }
+
+  @Override
+  public boolean processRequest(CefRequest request, final CefCallback callback) {
+    final String url = request.getURL();
+    final HttpDiskCache.Entry entry = cache_.get(url);
+    if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+      delegate_ = new FileResourceHandler(cache_.getFile(entry), mimeType(entry.getContentType()));
+      setEntryHeaders(entry, "HIT");
+      for (Map.Entry<String, String> header : headers_.entrySet())
+        delegate_.setHeader(header.getKey(), header.getValue());
+      return delegate_.processRequest(request, callback);
+    }
+
+    // the request must not be touched outside of CEF's IO thread
+    final Map<String, String> requestHeaders = new HashMap<>();
+    request.getHeaderMap(requestHeaders);
+    for (String name : SKIPPED_REQUEST_HEADERS)
+      removeHeader(requestHeaders, name);
+
+    try {
+      executor_.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!cancelled_)
+            load(url, requestHeaders, entry, callback);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      if (entry != null)
+        serveEntry(entry, "STALE", callback);
+      else
+        serveError(503, "Too many pending requests", callback);
+    }
+    return true;
+  }
+
+  private void load(String url, Map<String, String> requestHeaders,
+                    HttpDiskCache.Entry entry, CefCallback callback) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      connection_ = connection;
+      connection.setConnectTimeout(cache_.getConfig().getConnectTimeout());
+      connection.setReadTimeout(cache_.getConfig().getReadTimeout());
+      connection.setInstanceFollowRedirects(false);
+      connection.setUseCaches(false);
+      for (Map.Entry<String, String> header : requestHeaders.entrySet())
+        connection.setRequestProperty(header.getKey(), header.getValue());
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+      if (entry != null) {
+        if (entry.getETag() != null)
+          connection.setRequestProperty("If-None-Match", entry.getETag());
+        if (entry.getLastModified() != null)
+          connection.setRequestProperty("If-Modified-Since", entry.getLastModified());
+      }
+
+      int status = connection.getResponseCode();
+      long expiresAt = HttpDiskCache.expiresAt(connection.getHeaderField("Cache-Control"),
+                                               connection.getExpiration(), connection.getDate(),
+                                               connection.getLastModified(),
+                                               System.currentTimeMillis());
+      if (status == 304 && entry != null) {
+        connection.disconnect();
+        serveEntry(cache_.refresh(entry, Math.max(expiresAt, 0)), "REVALIDATED", callback);
+        return;
+      }
+      if (status >= 500 && entry != null) {
+        connection.disconnect();
+        serveEntry(entry, "STALE", callback);
+        return;
+      }
+
+      InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+      String encoding = connection.getContentEncoding();
+      boolean decode = body != null && "gzip".equalsIgnoreCase(encoding);
+      if (decode)
+        body = new GZIPInputStream(body, CHUNK_SIZE);
+
+      status_ = status;
+      String contentType = connection.getContentType();
+      mime_type_ = mimeType(contentType);
+      for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+        // the null key is the status line
+        if (header.getKey() != null && !header.getValue().isEmpty())
+          headers_.put(header.getKey(), join(header.getValue()));
+      }
+      for (String name : SKIPPED_RESPONSE_HEADERS)
+        removeHeader(headers_, name);
+      if (decode) {
+        removeHeader(headers_, "Content-Encoding");
+      } else {
+        long length = connection.getContentLengthLong();
+        length_ = length <= Integer.MAX_VALUE ? length : -1;
+      }
+      headers_.put("X-Cache", "MISS");
+      String location = connection.getHeaderField("Location");
+      if (status >= 300 && status < 400 && location != null)
+        redirect_url_ = URI.create(url).resolve(location).toString();
+
+      String etag = connection.getHeaderField("ETag");
+      String lastModified = connection.getHeaderField("Last-Modified");
+      String vary = connection.getHeaderField("Vary");
+      boolean storable = status == 200 && body != null && expiresAt >= 0
+          && (encoding == null || decode || "identity".equalsIgnoreCase(encoding))
+          // entries are keyed by URL alone
+          && (vary == null || vary.trim().equalsIgnoreCase("Accept-Encoding"))
+          && HttpDiskCache.Entry.isStorable(contentType, etag, lastModified);
+      if (status == 200 && !storable && entry != null)
+        cache_.remove(url);
+
+      HttpDiskCache.Fill fill = null;
+      if (storable) {
+        try {
+          fill = cache_.startFill(url);
+        } catch (IOException e) {
+          System.err.println("Failed to cache " + url + ": " + e);
+        }
+      }
+
+      headersReady(callback);
+      if (pump(body, fill) && fill != null) {
+        try {
+          fill.commit(contentType, etag, lastModified, expiresAt);
+        } catch (IOException e) {
+          System.err.println("Failed to cache " + url + ": " + e);
+        }
+      }
+    } catch (IOException e) {
+      if (cancelled_)
+        return;
+      if (ready_) {
+        // broken off while streaming, the browser sees a truncated body
+        System.err.println("Failed to load " + url + ": " + e);
+        finish();
+      } else if (entry != null) {
+        serveEntry(entry, "STALE", callback);
+      } else {
+        serveError(502, "Failed to load " + url + ": " + e, callback);
+      }
+    } finally {
+      if (connection != null)
+        connection.disconnect();
+    }
+  }
+
+  private void serveEntry(HttpDiskCache.Entry entry, String cacheStatus, CefCallback callback) {
+    InputStream body;
+    try {
+      body = new FileInputStream(cache_.getFile(entry));
+    } catch (IOException e) {
+      serveError(502, "Cache entry of " + entry.getUrl() + " is gone", callback);
+      return;
+    }
+    status_ = 200;
+    mime_type_ = mimeType(entry.getContentType());
+    setEntryHeaders(entry, cacheStatus);
+    if ("STALE".equals(cacheStatus))
+      headers_.put("Warning", "111 - \"Revalidation Failed\"");
+    length_ = entry.getSize() <= Integer.MAX_VALUE ? entry.getSize() : -1;
+    headersReady(callback);
+    try {
+      pump(body, null);
+    } catch (IOException e) {
+      if (!cancelled_)
+        System.err.println("Failed to read the cache entry of " + entry.getUrl() + ": " + e);
+      finish();
+    }
+  }
+
+  private void serveError(int status, String message, CefCallback callback) {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    status_ = status;
+    mime_type_ = "text/plain";
+    headers_.clear();
+    headers_.put("Content-Type", "text/plain; charset=utf-8");
+    length_ = body.length;
+    synchronized (this) {
+      chunks_.add(ByteBuffer.wrap(body));
+    }
+    headersReady(callback);
+    finish();
+  }
+
+  private void setEntryHeaders(HttpDiskCache.Entry entry, String cacheStatus) {
+    headers_.clear();
+    if (entry.getContentType() != null)
+      headers_.put("Content-Type", entry.getContentType());
+    if (entry.getETag() != null)
+      headers_.put("ETag", entry.getETag());
+    if (entry.getLastModified() != null)
+      headers_.put("Last-Modified", entry.getLastModified());
+    headers_.put("X-Cache", cacheStatus);
+  }
+
+  private void headersReady(CefCallback callback) {
+    ready_ = true;
+    if (!cancelled_)
+      callback.Continue();
+  }
+
+  /**
+   * Copy <code>body</code> to the browser and to <code>fill</code>, waiting
+   * whenever the browser is {@value #MAX_CHUNKS} chunks behind. The fill is
+   * aborted unless the whole body was read.
+   *
+   * @return <code>true</code> if the whole body was read
+   */
+  private boolean pump(InputStream body, HttpDiskCache.Fill fill) throws IOException {
+    boolean complete = false;
+    try (InputStream in = body) {
+      while (!cancelled_) {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int read = in != null ? in.read(buffer) : -1;
+        if (read < 0) {
+          complete = true;
+          break;
+        }
+        if (read == 0)
+          continue;
+        if (fill != null)
+          fill.write(buffer, 0, read);
+
+        CefCallback pending;
+        synchronized (this) {
+          while (chunks_.size() >= MAX_CHUNKS && !cancelled_)
+            wait();
+          if (cancelled_)
+            break;
+          chunks_.add(ByteBuffer.wrap(buffer, 0, read));
+          pending = pending_read_;
+          pending_read_ = null;
+        }
+        if (pending != null)
+          pending.Continue();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (fill != null && !complete)
+        fill.abort();
+    }
+    finish();
+    return complete;
+  }
+
+  private void finish() {
+    CefCallback pending;
+    synchronized (this) {
+      eof_ = true;
+      pending = pending_read_;
+      pending_read_ = null;
+    }
+    if (pending != null && !cancelled_)
+      pending.Continue();
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    if (delegate_ != null) {
+      delegate_.getResponseHeaders(response, response_length, redirectUrl);
+      return;
+    }
+    if (!ready_) {
+      // not expected before Continue()
+      response.setStatus(500);
+      response.setMimeType("text/plain");
+      response_length.set(0);
+      return;
+    }
+    response.setStatus(status_);
+    response.setMimeType(mime_type_);
+    response.setHeaderMap(headers_);
+    response_length.set((int) length_);
+    if (redirect_url_ != null)
+      redirectUrl.set(redirect_url_);
+  }
+
+  @Override
+  public boolean readResponse(byte[] data_out,
+                              int bytes_to_read,
+                              IntRef bytes_read,
+                              CefCallback callback) {
+    if (delegate_ != null)
+      return delegate_.readResponse(data_out, bytes_to_read, bytes_read, callback);
+
+    synchronized (this) {
+      if (current_ == null || !current_.hasRemaining()) {
+        current_ = chunks_.poll();
+        // the worker may be waiting for room
+        notifyAll();
+      }
+      if (current_ == null) {
+        bytes_read.set(0);
+        if (eof_ || cancelled_)
+          return false;
+        // continued by the worker once the next chunk has arrived
+        pending_read_ = callback;
+        return true;
+      }
+      int transfer_size = Math.min(bytes_to_read, current_.remaining());
+      current_.get(data_out, 0, transfer_size);
+      bytes_read.set(transfer_size);
+      return true;
+    }
+  }
+
+  @Override
+  public void cancel() {
+    cancelled_ = true;
+    if (delegate_ != null) {
+      delegate_.cancel();
+      return;
+    }
+    HttpURLConnection connection = connection_;
+    if (connection != null)
+      connection.disconnect();
+    synchronized (this) {
+      chunks_.clear();
+      pending_read_ = null;
+      notifyAll();
+    }
+  }
+
+  private static String mimeType(String contentType) {
+    if (contentType == null)
+      return "application/octet-stream";
+    int semicolon = contentType.indexOf(';');
+    return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+  }
+
+  private static void removeHeader(Map<String, String> headers, String name) {
+    for (String key : headers.keySet().toArray(new String[0])) {
+      if (key.equalsIgnoreCase(name))
+        headers.remove(key);
+    }
+  }
+
+  private static String join(List<String> values) {
+    if (values.size() == 1)
+      return values.get(0);
+    StringBuilder joined = new StringBuilder();
+    for (String value : values) {
+      if (joined.length() > 0)
+        joined.append(", ");
+      joined.append(value);
+    }
+    return joined.toString();
+  }
+}
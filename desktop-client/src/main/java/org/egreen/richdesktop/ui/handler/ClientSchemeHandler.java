@@ -7,33 +7,41 @@ package org.egreen.richdesktop.ui.handler;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
-import org.cef.callback.CefCallback;
-import org.cef.handler.CefResourceHandlerAdapter;
-import org.cef.misc.IntRef;
-import org.cef.misc.StringRef;
 import org.cef.network.CefRequest;
-import org.cef.network.CefResponse;
 
 /**
  * The example for the second scheme with domain handling is a more
  * complex example and is taken from the parent project CEF. Please
  * see CEF: "cefclient/scheme_test.cpp" for futher details
+ * <p/>
+ * The content is produced off CEF's IO thread, see AsyncResourceHandler.
+ * The scheme handler factory creates one instance per request, so the
+ * response state needs no synchronization. Class path resources are cached
+ * as immutable byte arrays, shared by all instances, up to
+ * {@link #CACHE_MAX_BYTES} in total.
  */
-public class ClientSchemeHandler extends CefResourceHandlerAdapter {
+public class ClientSchemeHandler extends AsyncResourceHandler {
   public static final String scheme = "client";
   public static final String domain = "tests";
 
-  private byte[] data_;
-  private String mime_type_;
-  private int offset_ = 0;
+  public static final int CACHE_MAX_BYTES = 4 * 1024 * 1024;
+  // larger resources are loaded on every request
+  public static final int CACHE_MAX_ENTRY_BYTES = 512 * 1024;
+
+  // resource name -> content, in access order; guarded by itself
+  private static final LinkedHashMap<String, byte[]> cache_ =
+      new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  private static int cachedBytes_ = 0;
 
   public ClientSchemeHandler() {
     super();
   }
 
   @Override
-  public synchronized boolean processRequest(CefRequest request, CefCallback callback) {
+  protected void produce(CefRequest request) {
     boolean handled = false;
     String url = request.getURL();
     if (url.indexOf("handler.html") != -1) {
@@ -56,82 +64,75 @@ public class ClientSchemeHandler extends CefResourceHandlerAdapter {
               "<input type=\"submit\">" +
               "</form></body></html>";
 
-      data_ = html.getBytes();
-
-      handled = true;
       // Set the resulting mime type
-      mime_type_ = "text/html";
+      setContent("text/html", html);
+      handled = true;
     } else if (url.endsWith(".png")) {
-      handled = loadContent(url.substring(url.lastIndexOf('/')+1));
-      mime_type_ = "image/png";
+      handled = loadContent(url.substring(url.lastIndexOf('/')+1), "image/png");
     } else if (url.endsWith(".html")) {
-      handled = loadContent(url.substring(url.lastIndexOf('/')+1));
-      mime_type_ = "text/html";
+      handled = loadContent(url.substring(url.lastIndexOf('/')+1), "text/html");
       if (!handled) {
         String html = "<html><head><title>Error 404</title></head>";
                html+= "<body><h1>Error 404</h1>";
                html+= "File  " + url.substring(url.lastIndexOf('/')+1) + " ";
                html+= "does not exist</body></html>";
-        data_ = html.getBytes();
+        setContent("text/html", html);
+        setStatus(404);
         handled = true;
       }
     }
 
-    if (handled) {
-      // Indicate the headers are available.
-      callback.Continue();
-      return true;
+    if (!handled) {
+      setContent("text/plain", "Not found: " + url);
+      setStatus(404);
     }
-
-    return false;
   }
 
-  @Override
-  public void getResponseHeaders(CefResponse response,
-                                 IntRef response_length,
-                                 StringRef redirectUrl) {
-    response.setMimeType(mime_type_);
-    response.setStatus(200);
-
-    // Set the resulting response length
-    response_length.set(data_.length);
+  private boolean loadContent(String resName, String mimeType) {
+    byte[] content;
+    synchronized (cache_) {
+      content = cache_.get(resName);
+    }
+    if (content == null) {
+      content = readResource(resName);
+      if (content == null)
+        return false;
+      cache(resName, content);
+    }
+    // never modified, readResponse only copies from it
+    setContent(mimeType, content);
+    return true;
   }
 
-  @Override
-  public synchronized boolean readResponse(byte[] data_out,
-                              int bytes_to_read,
-                              IntRef bytes_read,
-                              CefCallback callback) {
-    boolean has_data = false;
-
-    if (offset_ < data_.length) {
-      // Copy the next block of data into the buffer.
-      int transfer_size = Math.min(bytes_to_read, (data_.length - offset_));
-      System.arraycopy(data_, offset_, data_out, 0, transfer_size);
-      offset_ += transfer_size;
-
-      bytes_read.set(transfer_size);
-      has_data = true;
-    } else {
-      offset_ = 0;
-      bytes_read.set(0);
+  private byte[] readResource(String resName) {
+    try (InputStream inStream = getClass().getResourceAsStream(resName)) {
+      if (inStream == null)
+        return null;
+      ByteArrayOutputStream outFile = new ByteArrayOutputStream(Math.max(inStream.available(), 1024));
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inStream.read(buffer)) >= 0)
+        outFile.write(buffer, 0, read);
+      return outFile.toByteArray();
+    } catch (IOException e) {
+      return null;
     }
-
-    return has_data;
   }
 
-  private boolean loadContent(String resName) {
-    InputStream inStream = getClass().getResourceAsStream(resName);
-    if (inStream != null) {
-      try {
-        ByteArrayOutputStream outFile = new ByteArrayOutputStream();
-        int readByte = -1;
-        while ((readByte = inStream.read()) >= 0)
-          outFile.write(readByte);
-        data_ = outFile.toByteArray();
-        return true;
-      } catch (IOException e) { }
+  private static void cache(String resName, byte[] content) {
+    if (content.length > CACHE_MAX_ENTRY_BYTES)
+      return;
+    synchronized (cache_) {
+      byte[] previous = cache_.put(resName, content);
+      if (previous != null)
+        cachedBytes_ -= previous.length;
+      cachedBytes_ += content.length;
+
+      Iterator<byte[]> it = cache_.values().iterator();
+      while (cachedBytes_ > CACHE_MAX_BYTES && it.hasNext()) {
+        cachedBytes_ -= it.next().length;
+        it.remove();
+      }
     }
-    return false;
   }
 }
@@ -0,0 +1,203 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+/**
+ * Streams a file to the browser, reading from a FileChannel only as much as
+ * CEF asks for in each readResponse() call, so files of any size are served
+ * without holding them in memory.
+ * <p/>
+ * Single byte ranges ("Range: bytes=start-end") are answered with 206, so
+ * media elements can seek. Responses longer than 2GB can't be announced
+ * through the int response length; their length is sent in the
+ * Content-Length header and CEF reads until the end of the stream.
+ */
+public class FileResourceHandler extends CefResourceHandlerAdapter {
+  private final File file_;
+  private final String mime_type_;
+  private final Map<String, String> headers_ = new HashMap<>();
+
+  private FileChannel channel_;
+  private int status_;
+  private long position_;
+  private long end_;
+
+  public FileResourceHandler(File file, String mimeType) {
+    file_ = file;
+    mime_type_ = mimeType;
+  }
+
+  /**
+   * Add a response header, e.g. Cache-Control. Has to be called before the
+   * request is processed.
+   */
+  public void setHeader(String name, String value) {
+    headers_.put(name, value);
+  }
+
+  @Override
+  public boolean processRequest(CefRequest request, CefCallback callback) {
+    long size;
+    try {
+      channel_ = new RandomAccessFile(file_, "r").getChannel();
+      size = channel_.size();
+    } catch (IOException e) {
+      System.err.println("Failed to open " + file_ + ": " + e);
+      close();
+      return false;
+    }
+
+    headers_.put("Accept-Ranges", "bytes");
+    headers_.put("ETag", "\"" + Long.toHexString(file_.lastModified()) + "-"
+                         + Long.toHexString(size) + "\"");
+
+    Map<String, String> requestHeaders = new HashMap<>();
+    request.getHeaderMap(requestHeaders);
+    String range = header(requestHeaders, "Range");
+    long[] bounds = range != null ? parseRange(range, size) : null;
+
+    if (range != null && bounds == null) {
+      status_ = 416;
+      headers_.put("Content-Range", "bytes */" + size);
+      position_ = end_ = 0;
+    } else if (bounds != null && (bounds[0] > 0 || bounds[1] < size)) {
+      status_ = 206;
+      headers_.put("Content-Range", "bytes " + bounds[0] + "-" + (bounds[1] - 1) + "/" + size);
+      position_ = bounds[0];
+      end_ = bounds[1];
+    } else {
+      status_ = 200;
+      position_ = 0;
+      end_ = size;
+    }
+    headers_.put("Content-Length", Long.toString(end_ - position_));
+
+    callback.Continue();
+    return true;
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    response.setStatus(status_);
+    response.setMimeType(mime_type_);
+    response.setHeaderMap(headers_);
+    long length = end_ - position_;
+    response_length.set(length <= Integer.MAX_VALUE ? (int) length : -1);
+  }
+
+  @Override
+  public boolean readResponse(byte[] data_out,
+                              int bytes_to_read,
+                              IntRef bytes_read,
+                              CefCallback callback) {
+    int transfer_size = (int) Math.min(bytes_to_read, end_ - position_);
+    if (transfer_size <= 0 || channel_ == null) {
+      bytes_read.set(0);
+      close();
+      return false;
+    }
+
+    try {
+      // positional reads straight into CEF's buffer, no intermediate copy
+      ByteBuffer target = ByteBuffer.wrap(data_out, 0, transfer_size);
+      while (target.hasRemaining()) {
+        int read = channel_.read(target, position_ + target.position());
+        if (read < 0)
+          break;
+      }
+      int read = target.position();
+      if (read == 0) {
+        // the file was truncated while streaming it
+        bytes_read.set(0);
+        close();
+        return false;
+      }
+      position_ += read;
+      bytes_read.set(read);
+      return true;
+    } catch (IOException e) {
+      System.err.println("Failed to read " + file_ + ": " + e);
+      bytes_read.set(0);
+      close();
+      return false;
+    }
+  }
+
+  @Override
+  public void cancel() {
+    close();
+  }
+
+  private void close() {
+    if (channel_ == null)
+      return;
+    try {
+      channel_.close();
+    } catch (IOException e) {
+      // nothing to do about it
+    }
+    channel_ = null;
+  }
+
+  private static String header(Map<String, String> headers, String name) {
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name))
+        return header.getValue();
+    }
+    return null;
+  }
+
+  /**
+   * Parse a single range of the form "bytes=start-end", "bytes=start-" or
+   * "bytes=-suffixLength".
+   *
+   * @return {start, end exclusive}, the whole file for ranges this handler
+   * doesn't support (multiple ranges), or <code>null</code> if the range
+   * can't be satisfied
+   */
+  static long[] parseRange(String range, long size) {
+    range = range.trim();
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0)
+      return new long[] {0, size};
+
+    String spec = range.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0)
+      return null;
+    try {
+      long start;
+      long end;
+      if (dash == 0) {
+        long suffix = Long.parseLong(spec.substring(1).trim());
+        if (suffix <= 0)
+          return null;
+        start = Math.max(0, size - suffix);
+        end = size;
+      } else {
+        start = Long.parseLong(spec.substring(0, dash).trim());
+        String last = spec.substring(dash + 1).trim();
+        end = last.isEmpty() ? size : Math.min(size, Long.parseLong(last) + 1);
+      }
+      if (start >= size || start >= end)
+        return null;
+      return new long[] {start, end};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package org.egreen.richdesktop.ui.handler;
+
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefLoadHandler;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
+
+/**
+ * Reports frame loads to the {@link WaterfallRecorder}. A CefClient takes
+ * only one load handler, so load start and end are passed on to an optional
+ * listener as well.
+ */
+public class LoadHandler extends CefLoadHandlerAdapter {
+  private final CefLoadHandler listener_;
+
+  public LoadHandler(CefLoadHandler listener) {
+    listener_ = listener;
+  }
+
+  @Override
+  public void onLoadStart(CefBrowser browser, int frameIdentifier) {
+    WaterfallRecorder.getInstance().frameLoadStart(frameIdentifier);
+    if (listener_ != null)
+      listener_.onLoadStart(browser, frameIdentifier);
+  }
+
+  @Override
+  public void onLoadEnd(CefBrowser browser, int frameIdentifier, int httpStatusCode) {
+    WaterfallRecorder.getInstance().frameLoadEnd(frameIdentifier, httpStatusCode);
+    if (listener_ != null)
+      listener_.onLoadEnd(browser, frameIdentifier, httpStatusCode);
+  }
+}
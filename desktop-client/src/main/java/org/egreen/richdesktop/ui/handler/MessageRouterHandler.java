@@ -4,24 +4,24 @@
 
 package org.egreen.richdesktop.ui.handler;
 
-import org.cef.browser.CefBrowser;
-import org.cef.callback.CefQueryCallback;
-import org.cef.handler.CefMessageRouterHandlerAdapter;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+import org.egreen.richdesktop.ui.rpc.RpcMethod;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
 
-public class MessageRouterHandler extends CefMessageRouterHandlerAdapter {
-  @Override
-  public boolean onQuery(CefBrowser browser,
-                         long query_id,
-                         String request,
-                         boolean persistent,
-                         CefQueryCallback callback) {
-    if (request.indexOf("BindingTest:") == 0) {
-      // Reverse the message and return it to the JavaScript caller.
-      String msg = request.substring(12);
-      callback.success(new StringBuilder(msg).reverse().toString());
-      return true;
-    }
-    // Not handled.
-    return false;
+/**
+ * Bridge methods of binding_test.html, dispatched by BridgeRpcRouter.
+ */
+public class MessageRouterHandler {
+  public static void registerMethods(RpcRegistry registry) {
+    // Reverse the message and return it to the JavaScript caller.
+    registry.register("binding.reverse", new RpcMethod() {
+      @Override
+      public Object invoke(Object params) throws RpcException {
+        if (!(params instanceof Object[]) || ((Object[]) params).length != 1)
+          throw new RpcException(RpcException.INVALID_PARAMS, "Expected [message]");
+        String msg = String.valueOf(((Object[]) params)[0]);
+        return new StringBuilder(msg).reverse().toString();
+      }
+    });
   }
 }
@@ -5,71 +5,71 @@
 package org.egreen.richdesktop.ui.handler;
 
 import org.cef.CefClient;
-import org.cef.browser.CefBrowser;
 import org.cef.browser.CefMessageRouter;
 import org.cef.browser.CefMessageRouter.CefMessageRouterConfig;
-import org.cef.callback.CefQueryCallback;
-import org.cef.handler.CefMessageRouterHandlerAdapter;
 
-public class MessageRouterHandlerEx extends CefMessageRouterHandlerAdapter {
+import org.egreen.richdesktop.ui.bridge.BridgeMetrics;
+import org.egreen.richdesktop.ui.bridge.BridgeRpcRouter;
+import org.egreen.richdesktop.ui.bridge.InstrumentedQueryHandler;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+import org.egreen.richdesktop.ui.rpc.RpcMethod;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
+
+/**
+ * Bridge methods of binding_test2.html, which add and remove a second
+ * message router with the JavaScript function "myQuery".
+ */
+public class MessageRouterHandlerEx {
 
   private final CefClient client_;
   private final CefMessageRouterConfig config_ =
       new CefMessageRouterConfig("myQuery", "myQueryAbort");
-  private CefMessageRouter router_ = null;
+  // queries run on worker threads, see AsyncQueryHandler
+  private volatile CefMessageRouter router_ = null;
 
   public MessageRouterHandlerEx(final CefClient client) {
     client_ = client;
   }
 
-  @Override
-  public boolean onQuery(CefBrowser browser, 
-                         long query_id, 
-                         String request,
-                         boolean persistent,
-                         CefQueryCallback callback) {
-    if (request.startsWith("hasExtension")) {
-      if (router_ != null)
-        callback.success("");
-      else
-        callback.failure(0, "");
-    } else if (request.startsWith("enableExt")) {
-      if (router_ != null) {
-        callback.failure(-1, "Already enabled");
-      } else {
-        router_ = CefMessageRouter.create(config_, new JavaVersionMessageRouter());
-        client_.addMessageRouter(router_);
-        callback.success("");
+  public void registerMethods(RpcRegistry registry) {
+    registry.register("ext.has", new RpcMethod() {
+      @Override
+      public Object invoke(Object params) {
+        return router_ != null;
       }
-    } else if (request.startsWith("disableExt")) {
-      if (router_ == null) {
-        callback.failure(-2, "Already disabled");
-      } else {
-        client_.removeMessageRouter(router_);
-        router_.dispose();
-        router_ = null;
-        callback.success("");
+    });
+    registry.register("ext.enable", new RpcMethod() {
+      @Override
+      public Object invoke(Object params) throws RpcException {
+        synchronized (MessageRouterHandlerEx.this) {
+          if (router_ != null)
+            throw new RpcException(-1, "Already enabled");
+          RpcRegistry extRegistry = new RpcRegistry();
+          extRegistry.register("java.version", new RpcMethod() {
+            @Override
+            public Object invoke(Object params) {
+              return System.getProperty("java.version");
+            }
+          });
+          router_ = CefMessageRouter.create(config_, new InstrumentedQueryHandler(
+              new BridgeRpcRouter(extRegistry), BridgeMetrics.getInstance()));
+          client_.addMessageRouter(router_);
+          return null;
+        }
       }
-    } else {
-      // not handled
-      return false;
-    }
-    return true;
-  }
-
-  private class JavaVersionMessageRouter extends CefMessageRouterHandlerAdapter {
-    @Override
-    public boolean onQuery(CefBrowser browser,
-                           long query_id,
-                           String request,
-                           boolean persistent,
-                           CefQueryCallback callback) {
-      if (request.startsWith("jcefJava")) {
-        callback.success(System.getProperty("java.version"));
-        return true;
+    });
+    registry.register("ext.disable", new RpcMethod() {
+      @Override
+      public Object invoke(Object params) throws RpcException {
+        synchronized (MessageRouterHandlerEx.this) {
+          if (router_ == null)
+            throw new RpcException(-2, "Already disabled");
+          client_.removeMessageRouter(router_);
+          router_.dispose();
+          router_ = null;
+          return null;
+        }
       }
-      return false;
-    };
+    });
   }
-
 }
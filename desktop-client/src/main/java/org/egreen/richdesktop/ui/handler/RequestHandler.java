@@ -5,6 +5,7 @@
 package org.egreen.richdesktop.ui.handler;
 
 import java.awt.Frame;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Vector;
 
@@ -22,46 +23,49 @@ import org.cef.network.CefPostDataElement;
 import org.cef.network.CefRequest;
 import org.cef.network.CefWebPluginInfo;
 
-import tests.detailed.dialog.CertErrorDialog;
-import tests.detailed.dialog.PasswordDialog;
-import tests.detailed.handler.ResourceHandler;
+import org.egreen.richdesktop.ui.cache.HttpDiskCache;
+import org.egreen.richdesktop.ui.dialog.CertErrorDialog;
+import org.egreen.richdesktop.ui.dialog.PasswordDialog;
+import org.egreen.richdesktop.ui.filter.PostDataInspector;
+import org.egreen.richdesktop.ui.filter.PostDataRule;
+import org.egreen.richdesktop.ui.filter.UrlFilterEngine;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
 
 public class RequestHandler extends CefRequestHandlerAdapter {
   private final Frame owner_;
+  // null if no origins are configured for caching
+  private final HttpDiskCache cache_;
+  private final PostDataInspector navigationRules_;
+  private final PostDataInspector resourceRules_;
+  // null if the rule file can't be watched
+  private final UrlFilterEngine urlFilter_;
 
   public RequestHandler(Frame owner) {
     owner_ = owner;
+    cache_ = HttpDiskCache.getDefault();
+    navigationRules_ = PostDataInspector.load();
+    resourceRules_ = navigationRules_.forResources();
+    urlFilter_ = UrlFilterEngine.getDefault();
   }
 
   @Override
   public boolean onBeforeBrowse(CefBrowser browser,
                                 CefRequest request,
                                 boolean is_redirect) {
-    CefPostData postData = request.getPostData();
-    if (postData != null) {
-      Vector<CefPostDataElement> elements = new Vector<CefPostDataElement>();
-      postData.getElements(elements);
-      for (CefPostDataElement el : elements) {
-        int numBytes = el.getBytesCount();
-        if (numBytes <= 0)
-          continue;
-
-        byte[] readBytes = new byte[numBytes];
-        if (el.getBytes(numBytes, readBytes) <= 0)
-          continue;
-
-        String readString = new String(readBytes);
-        if (readString.indexOf("ignore") > -1) {
-          SwingUtilities.invokeLater( new Runnable() {
-            @Override
-            public void run() {
-              JOptionPane.showMessageDialog(owner_,
-                  "The request was rejected because you've entered \"ignore\" into the form.");
-            }
-          });
-          return true;
+    // this version of onBeforeBrowse has no frame; only a main frame
+    // navigation is its own first party
+    WaterfallRecorder.getInstance().navigationStarted(
+        request.getURL(), request.getURL().equals(request.getFirstPartyForCookies()));
+
+    final PostDataRule rule = navigationRules_.inspect(request.getPostData());
+    if (rule != null) {
+      SwingUtilities.invokeLater( new Runnable() {
+        @Override
+        public void run() {
+          JOptionPane.showMessageDialog(owner_, rule.getMessage());
         }
-      }
+      });
+      return true;
     }
     return false;
   }
@@ -69,6 +73,29 @@ public class RequestHandler extends CefRequestHandlerAdapter {
   @Override
   public boolean onBeforeResourceLoad(CefBrowser browser,
                                       CefRequest request) {
+    // trackers and the like are cancelled before anything is sent
+    if (urlFilter_ != null && urlFilter_.check(request.getURL()) != null)
+      return true;
+
+    if (!resourceRules_.isEmpty()) {
+      PostDataRule rule = resourceRules_.inspect(request.getPostData());
+      if (rule != null) {
+        System.err.println("Rejected " + request.getURL() + " by post data rule " + rule);
+        return true;
+      }
+    }
+
+    // Requests to the application itself are tagged, so the server side
+    // timings can be joined with this one in the waterfall.
+    long waterfallId = WaterfallRecorder.getInstance().resourceRequested(request.getURL(),
+                                                                        request.getMethod());
+    if (waterfallId >= 0 && WaterfallRecorder.isLocal(request.getURL())) {
+      HashMap<String, String> headerMap = new HashMap<>();
+      request.getHeaderMap(headerMap);
+      headerMap.put(WaterfallRecorder.HEADER, Long.toString(waterfallId));
+      request.setHeaderMap(headerMap);
+    }
+
     // If you send a HTTP-POST request to http://www.google.com/
     // google rejects your request because they don't allow HTTP-POST.
     //
@@ -92,7 +119,8 @@ public class RequestHandler extends CefRequestHandlerAdapter {
           if (el.getBytes(numBytes, readBytes) <= 0)
             continue;
 
-          String readString = new String(readBytes).trim();
+          // form data is URL-encoded, i.e. ASCII
+          String readString = new String(readBytes, StandardCharsets.ISO_8859_1).trim();
           String[] stringPairs = readString.split("&");
           for (String s : stringPairs) {
             int startPos = s.indexOf('=');
@@ -130,9 +158,25 @@ public class RequestHandler extends CefRequestHandlerAdapter {
     if (request.getURL().endsWith("foo.bar/")) {
       return new ResourceHandler();
     }
+    // Plain GET requests to the configured origins go through the disk cache.
+    if (cache_ != null && request.getMethod().equalsIgnoreCase("GET")
+        && request.getPostData() == null && !hasRangeHeader(request)
+        && cache_.handles(request.getURL())) {
+      return new CachingResourceHandler(cache_);
+    }
     return null;
   }
 
+  private static boolean hasRangeHeader(CefRequest request) {
+    HashMap<String, String> headerMap = new HashMap<>();
+    request.getHeaderMap(headerMap);
+    for (String name : headerMap.keySet()) {
+      if (name.equalsIgnoreCase("Range"))
+        return true;
+    }
+    return false;
+  }
+
   @Override
   public boolean getAuthCredentials(CefBrowser browser,
                                     boolean isProxy,
@@ -0,0 +1,97 @@
+package org.egreen.richdesktop.ui.handler;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+import org.egreen.richdesktop.ui.bridge.BinaryTransferRegistry;
+
+/**
+ * Serves the buffers registered with BinaryTransferRegistry, so the page
+ * gets binary data as ArrayBuffer (bridge.fetchTransfer() in bridge.js)
+ * instead of base64 in a query response. readResponse() copies from the
+ * registered buffer into CEF's buffer, nothing else is copied.
+ * <p/>
+ * A GET consumes the transfer, later requests for it get 404. The handles
+ * are unguessable, so any origin may read them; preflight requests are
+ * answered without consuming anything.
+ */
+public class TransferSchemeHandler extends CefResourceHandlerAdapter {
+  public static final String scheme = BinaryTransferRegistry.SCHEME;
+  public static final String domain = BinaryTransferRegistry.DOMAIN;
+
+  private final BinaryTransferRegistry registry_;
+  private final Map<String, String> headers_ = new HashMap<>();
+  private ByteBuffer data_;
+  private String mime_type_ = "text/plain";
+  private int status_;
+
+  public TransferSchemeHandler(BinaryTransferRegistry registry) {
+    registry_ = registry;
+  }
+
+  @Override
+  public boolean processRequest(CefRequest request, CefCallback callback) {
+    headers_.put("Access-Control-Allow-Origin", "*");
+    headers_.put("Cache-Control", "no-store");
+
+    String method = request.getMethod();
+    if ("OPTIONS".equals(method)) {
+      headers_.put("Access-Control-Allow-Methods", "GET");
+      status_ = 204;
+    } else if (!"GET".equals(method)) {
+      headers_.put("Allow", "GET, OPTIONS");
+      status_ = 405;
+    } else {
+      BinaryTransferRegistry.Transfer transfer = registry_.take(request.getURL());
+      if (transfer != null) {
+        data_ = transfer.getData();
+        mime_type_ = transfer.getMimeType();
+        status_ = 200;
+      } else {
+        // fetched before, expired or never registered
+        status_ = 404;
+      }
+    }
+    callback.Continue();
+    return true;
+  }
+
+  @Override
+  public void getResponseHeaders(CefResponse response,
+                                 IntRef response_length,
+                                 StringRef redirectUrl) {
+    response.setStatus(status_);
+    response.setMimeType(mime_type_);
+    response.setHeaderMap(headers_);
+    response_length.set(data_ != null ? data_.remaining() : 0);
+  }
+
+  @Override
+  public boolean readResponse(byte[] data_out,
+                              int bytes_to_read,
+                              IntRef bytes_read,
+                              CefCallback callback) {
+    int transfer_size = data_ != null ? Math.min(bytes_to_read, data_.remaining()) : 0;
+    if (transfer_size <= 0) {
+      bytes_read.set(0);
+      data_ = null;
+      return false;
+    }
+
+    data_.get(data_out, 0, transfer_size);
+    bytes_read.set(transfer_size);
+    return true;
+  }
+
+  @Override
+  public void cancel() {
+    data_ = null;
+  }
+}
@@ -0,0 +1,316 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Copies the web-app into an output directory, giving every asset except the
+ * HTML pages a content-hashed name (app.css -> app.0123456789.css) and
+ * rewriting the references in HTML, CSS and JS files to those names.
+ * <p/>
+ * Assets are also kept under their original names for references the
+ * rewriter can't see (e.g. URLs built at runtime). The mapping is written to
+ * {@value #MANIFEST}. The output is only rebuilt if the source changed, so
+ * the step is cheap enough to run on every startup; it can also be run at
+ * build time through {@link #main(String[])}.
+ */
+public class AssetFingerprinter {
+    public static final int HASH_LENGTH = 10;
+    public static final String DEFAULT_OUTPUT = "./build/web-app";
+    public static final String MANIFEST = "asset-manifest.json";
+
+    private static final Pattern HTML_REF =
+            Pattern.compile("(?:src|href)\\s*=\\s*[\"']([^\"'#?]+)");
+    private static final Pattern CSS_REF =
+            Pattern.compile("url\\(\\s*[\"']?([^\"')#?]+)|@import\\s+[\"']([^\"'#?]+)");
+    // only strings in reference positions: import/from, src/href assignments
+    // and fetch, importScripts and Worker calls; other strings, e.g. "a.b"
+    // used as a key, are left alone even if they happen to name an asset
+    private static final Pattern JS_REF = Pattern.compile(
+            "(?:\\bimport\\s*\\(?|\\bfrom|\\b(?:src|href)\\s*=|"
+                    + "\\b(?:fetch|importScripts|Worker|SharedWorker)\\s*\\()"
+                    + "\\s*[\"']([^\"'\\s#?]+)[\"']");
+
+    // result of prepare(), guarded by the class
+    private static File prepared;
+
+    private final Path source;
+    private final Path output;
+
+    // relative path (with '/' separators) -> source file
+    private final Map<String, Path> assets = new TreeMap<>();
+    // relative path -> fingerprinted relative path
+    private final Map<String, String> manifest = new TreeMap<>();
+    private final Set<String> inProgress = new HashSet<>();
+
+    public AssetFingerprinter(File source, File output) {
+        this.source = source.toPath().toAbsolutePath().normalize();
+        this.output = output.toPath().toAbsolutePath().normalize();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File source = new File(args.length > 0 ? args[0] : WebResources.DEFAULT_ROOT);
+        File output = new File(args.length > 1 ? args[1] : DEFAULT_OUTPUT);
+        new AssetFingerprinter(source, output).run();
+        System.out.println("Fingerprinted " + source + " into " + output);
+    }
+
+    /**
+     * Fingerprint the default web-app directory. If that fails, the
+     * unprocessed directory is returned, so the application still starts.
+     * In dev mode the source directory is served directly, so edits show up
+     * without a rebuild.
+     * <p/>
+     * LocalServer and AppHandler get the result through
+     * {@link WebResources#getDefault()}. The output is only prepared once per
+     * process, since a second run could delete files already being served.
+     *
+     * @return directory to serve the web-app from
+     */
+    public static synchronized File prepare() {
+        if (prepared == null) {
+            File source = new File(WebResources.DEFAULT_ROOT);
+            if (ResourceWatcher.DEV_MODE) {
+                prepared = source;
+            } else {
+                try {
+                    prepared = new AssetFingerprinter(source, new File(DEFAULT_OUTPUT)).run();
+                } catch (IOException e) {
+                    System.err.println("Failed to fingerprint " + source + ", serving it as-is: " + e);
+                    prepared = source;
+                }
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * @return the output directory
+     */
+    public File run() throws IOException {
+        if (isUpToDate()) {
+            return output.toFile();
+        }
+
+        collectAssets();
+        deleteRecursively(output);
+        Files.createDirectories(output);
+
+        for (String path : assets.keySet()) {
+            if (isHtml(path)) {
+                writeOutput(path, rewrite(path, read(path), HTML_REF));
+            } else {
+                process(path);
+            }
+        }
+
+        writeManifest();
+        return output.toFile();
+    }
+
+    private boolean isUpToDate() throws IOException {
+        Path manifestFile = output.resolve(MANIFEST);
+        if (!Files.isRegularFile(manifestFile)) {
+            return false;
+        }
+
+        final long built = Files.getLastModifiedTime(manifestFile).toMillis();
+        final boolean[] changed = {false};
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // a directory's time changes when files are added or removed
+                return check(attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                return check(attrs);
+            }
+
+            private FileVisitResult check(BasicFileAttributes attrs) {
+                if (attrs.lastModifiedTime().toMillis() > built) {
+                    changed[0] = true;
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return !changed[0];
+    }
+
+    private void collectAssets() throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                assets.put(source.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Fingerprint an asset, after fingerprinting the assets it references.
+     *
+     * @return fingerprinted relative path
+     */
+    private String process(String path) throws IOException {
+        String fingerprinted = manifest.get(path);
+        if (fingerprinted != null) {
+            return fingerprinted;
+        }
+        if (!inProgress.add(path)) {
+            // reference cycle - keep the original name, which is written as well
+            return path;
+        }
+
+        byte[] content = read(path);
+        if (path.endsWith(".css")) {
+            content = rewrite(path, content, CSS_REF);
+        } else if (path.endsWith(".js")) {
+            content = rewrite(path, content, JS_REF);
+        }
+
+        fingerprinted = fingerprint(path, content);
+        writeOutput(path, content);
+        writeOutput(fingerprinted, content);
+
+        inProgress.remove(path);
+        manifest.put(path, fingerprinted);
+        return fingerprinted;
+    }
+
+    private byte[] rewrite(String path, byte[] content, Pattern pattern) throws IOException {
+        String text = new String(content, StandardCharsets.UTF_8);
+        Matcher matcher = pattern.matcher(text);
+        StringBuffer result = new StringBuffer(text.length());
+
+        while (matcher.find()) {
+            int group = matcher.group(1) != null ? 1 : 2;
+            String ref = matcher.group(group);
+            String target = resolve(path, ref);
+
+            String replacement = matcher.group();
+            if (target != null && assets.containsKey(target) && !isHtml(target)) {
+                String fingerprinted = process(target);
+                String newRef = ref.substring(0, ref.lastIndexOf('/') + 1)
+                        + fingerprinted.substring(fingerprinted.lastIndexOf('/') + 1);
+                int refStart = matcher.start(group) - matcher.start();
+                replacement = replacement.substring(0, refStart) + newRef
+                        + replacement.substring(refStart + ref.length());
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Resolve a reference found in <code>path</code> to a relative asset path.
+     *
+     * @return the asset path, or <code>null</code> for external references
+     */
+    private static String resolve(String path, String ref) {
+        ref = ref.trim();
+        if (ref.isEmpty() || ref.startsWith("//") || ref.startsWith("data:") || ref.contains("://")) {
+            return null;
+        }
+        try {
+            String resolved = URI.create("app:/" + path).resolve(ref).getPath();
+            return resolved != null && resolved.startsWith("/") ? resolved.substring(1) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String fingerprint(String path, byte[] content) {
+        String hash;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; hex.length() < HASH_LENGTH; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            hash = hex.substring(0, HASH_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return path + "." + hash;
+        }
+        return path.substring(0, dot) + "." + hash + path.substring(dot);
+    }
+
+    private static boolean isHtml(String path) {
+        return path.endsWith(".html") || path.endsWith(".htm");
+    }
+
+    private byte[] read(String path) throws IOException {
+        return Files.readAllBytes(assets.get(path));
+    }
+
+    private void writeOutput(String path, byte[] content) throws IOException {
+        Path file = output.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+    }
+
+    private void writeManifest() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(output.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                writer.write("  \"" + escape(entry.getKey()) + "\": \"" + escape(entry.getValue()) + "\"");
+            }
+            writer.write("\n}\n");
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,304 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * All web-app resources in a single file, which is memory-mapped once, so
+ * serving a resource needs no file system access at all.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * int     magic "BPK1"
+ * int     entry count
+ * entries, sorted by path:
+ *   short   path length, UTF-8 path
+ *   long    last modified
+ *   byte    variant count (identity first, then e.g. gzip)
+ *   variants:
+ *     byte    encoding (0 identity, 1 gzip)
+ *     long    offset from the start of the file
+ *     int     length
+ * content of all variants
+ * </pre>
+ * The index is read at startup and looked up by binary search. Textual
+ * resources get a gzip variant, if that saves at least 10%.
+ */
+public class AssetPack implements ResourceProvider {
+    public static final String DEFAULT_FILE = "./web-app.pack";
+    // the one-jar distribution carries the pack as a class path resource
+    public static final String CLASSPATH_RESOURCE = "/web-app.pack";
+
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+
+    private static final int MAGIC = 0x42504b31;
+    private static final byte ENCODING_IDENTITY = 0;
+    private static final byte ENCODING_GZIP = 1;
+
+    // don't bother compressing smaller resources
+    private static final int MIN_COMPRESS_SIZE = 256;
+
+    // result of findDefault(), guarded by AssetPack.class
+    private static AssetPack defaultPack;
+    private static boolean defaultPackSearched;
+
+    private final File file;
+    private final String[] paths;
+    private final WebResources.Entry[] entries;
+    private final WebResources.Entry[] gzipEntries;
+
+    private AssetPack(File file, String[] paths, WebResources.Entry[] entries,
+                      WebResources.Entry[] gzipEntries) {
+        this.file = file;
+        this.paths = paths;
+        this.entries = entries;
+        this.gzipEntries = gzipEntries;
+    }
+
+    /**
+     * Find the pack to serve the web-app from: {@value #DEFAULT_FILE} or the
+     * class path resource {@value #CLASSPATH_RESOURCE}. In dev mode the
+     * web-app directory is always served. The pack is only opened once.
+     *
+     * @return the pack, or <code>null</code> if there is none
+     */
+    public static synchronized AssetPack findDefault() throws IOException {
+        if (!defaultPackSearched) {
+            defaultPack = openDefault();
+            defaultPackSearched = true;
+        }
+        return defaultPack;
+    }
+
+    private static AssetPack openDefault() throws IOException {
+        if (ResourceWatcher.DEV_MODE) {
+            return null;
+        }
+
+        File file = new File(DEFAULT_FILE);
+        if (file.isFile()) {
+            return open(file);
+        }
+
+        try (InputStream in = AssetPack.class.getResourceAsStream(CLASSPATH_RESOURCE)) {
+            if (in == null) {
+                return null;
+            }
+            // resources inside a jar can't be mapped
+            File extracted = File.createTempFile("web-app", ".pack");
+            extracted.deleteOnExit();
+            Files.copy(in, extracted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return open(extracted);
+        }
+    }
+
+    public static AssetPack open(File file) throws IOException {
+        ByteBuffer pack;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Asset pack is too large: " + file);
+            }
+            pack = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (pack.getInt() != MAGIC) {
+                throw new IOException("Not an asset pack: " + file);
+            }
+            int count = pack.getInt();
+            if (count < 0) {
+                throw new IOException("Corrupt asset pack: " + file);
+            }
+
+            String[] paths = new String[count];
+            WebResources.Entry[] entries = new WebResources.Entry[count];
+            WebResources.Entry[] gzipEntries = new WebResources.Entry[count];
+            for (int i = 0; i < count; i++) {
+                byte[] pathBytes = new byte[pack.getShort() & 0xFFFF];
+                pack.get(pathBytes);
+                String path = new String(pathBytes, StandardCharsets.UTF_8);
+                if (i > 0 && paths[i - 1].compareTo(path) >= 0) {
+                    throw new IOException("Asset pack index is not sorted: " + file);
+                }
+                paths[i] = path;
+
+                long lastModified = pack.getLong();
+                String mimeType = MimeTypes.forPath(path);
+                int variants = pack.get();
+                for (int v = 0; v < variants; v++) {
+                    byte encoding = pack.get();
+                    ByteBuffer content = slice(pack, pack.getLong(), pack.getInt(), file);
+                    WebResources.Entry entry = new WebResources.Entry(path, content, mimeType, lastModified);
+                    if (encoding == ENCODING_IDENTITY) {
+                        entries[i] = entry;
+                    } else if (encoding == ENCODING_GZIP) {
+                        gzipEntries[i] = entry;
+                    }
+                }
+                if (entries[i] == null) {
+                    throw new IOException("Asset pack has no content for " + path + ": " + file);
+                }
+            }
+            return new AssetPack(file, paths, entries, gzipEntries);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated asset pack: " + file, e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer pack, long offset, int length, File file) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > pack.capacity()) {
+            throw new IOException("Corrupt asset pack: " + file);
+        }
+        ByteBuffer content = pack.duplicate();
+        content.limit((int) offset + length);
+        content.position((int) offset);
+        return content.slice().asReadOnlyBuffer();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    @Override
+    public WebResources.Entry get(String path) {
+        int i = Arrays.binarySearch(paths, path);
+        return i >= 0 ? entries[i] : null;
+    }
+
+    @Override
+    public WebResources.Entry getEncoded(String path, String encoding) {
+        if (!GZIP.equals(encoding)) {
+            return null;
+        }
+        int i = Arrays.binarySearch(paths, path);
+        return i >= 0 ? gzipEntries[i] : null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File source = new File(args.length > 0 ? args[0] : AssetFingerprinter.DEFAULT_OUTPUT);
+        File pack = new File(args.length > 1 ? args[1] : DEFAULT_FILE);
+        int count = write(source, pack);
+        System.out.println("Packed " + count + " resources of " + source + " into " + pack);
+    }
+
+    /**
+     * Pack all files below <code>source</code>.
+     *
+     * @return number of packed resources
+     */
+    public static int write(File source, File pack) throws IOException {
+        final Path root = source.toPath().toAbsolutePath().normalize();
+        final Map<String, Path> files = new TreeMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<byte[]> pathBytes = new ArrayList<>(files.size());
+        List<byte[]> gzipped = new ArrayList<>(files.size());
+        long indexSize = 8;
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            byte[] path = file.getKey().getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xFFFF) {
+                throw new IOException("Path is too long: " + file.getKey());
+            }
+            pathBytes.add(path);
+
+            byte[] compressed = null;
+            long size = Files.size(file.getValue());
+            if (size >= MIN_COMPRESS_SIZE && MimeTypes.isText(MimeTypes.forPath(file.getKey()))) {
+                compressed = gzip(Files.readAllBytes(file.getValue()));
+                if (compressed.length > size * 9 / 10) {
+                    compressed = null;
+                }
+            }
+            gzipped.add(compressed);
+            indexSize += 2 + path.length + 8 + 1 + 13 * (compressed != null ? 2 : 1);
+        }
+
+        File parent = pack.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(pack), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(files.size());
+
+            long offset = indexSize;
+            int i = 0;
+            for (Path file : files.values()) {
+                long size = Files.size(file);
+                byte[] compressed = gzipped.get(i);
+
+                out.writeShort(pathBytes.get(i).length);
+                out.write(pathBytes.get(i));
+                out.writeLong(Files.getLastModifiedTime(file).toMillis());
+                out.writeByte(compressed != null ? 2 : 1);
+                out.writeByte(ENCODING_IDENTITY);
+                out.writeLong(offset);
+                out.writeInt((int) size);
+                offset += size;
+                if (compressed != null) {
+                    out.writeByte(ENCODING_GZIP);
+                    out.writeLong(offset);
+                    out.writeInt(compressed.length);
+                    offset += compressed.length;
+                }
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("Web-app is too large to be packed");
+                }
+                i++;
+            }
+
+            i = 0;
+            for (Path file : files.values()) {
+                Files.copy(file, out);
+                if (gzipped.get(i) != null) {
+                    out.write(gzipped.get(i));
+                }
+                i++;
+            }
+        }
+        return files.size();
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,28 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cache-Control values for web-app resources. Fingerprinted assets (see
+ * {@link AssetFingerprinter}) never change and are cached for a year without
+ * revalidation; everything else, index.html in particular, is revalidated.
+ */
+public final class CachePolicy {
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    public static final String REVALIDATE = "no-cache";
+
+    // name.0123456789.ext
+    private static final Pattern FINGERPRINTED =
+            Pattern.compile(".*\\.[0-9a-f]{" + AssetFingerprinter.HASH_LENGTH + "}\\.[^./]+$");
+
+    private CachePolicy() {
+    }
+
+    public static boolean isFingerprinted(String path) {
+        return FINGERPRINTED.matcher(path).matches();
+    }
+
+    public static String cacheControlFor(String path) {
+        return isFingerprinted(path) ? IMMUTABLE : REVALIDATE;
+    }
+}
@@ -0,0 +1,73 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * File extension to MIME type table for the web-app resources.
+ */
+public final class MimeTypes {
+    public static final String DEFAULT = "application/octet-stream";
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("html", "text/html");
+        TYPES.put("htm", "text/html");
+        TYPES.put("css", "text/css");
+        TYPES.put("js", "application/javascript");
+        TYPES.put("json", "application/json");
+        TYPES.put("map", "application/json");
+        TYPES.put("xml", "application/xml");
+        TYPES.put("txt", "text/plain");
+        TYPES.put("csv", "text/csv");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        TYPES.put("eot", "application/vnd.ms-fontobject");
+        TYPES.put("mp3", "audio/mpeg");
+        TYPES.put("ogg", "audio/ogg");
+        TYPES.put("wav", "audio/wav");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("webm", "video/webm");
+        TYPES.put("pdf", "application/pdf");
+        TYPES.put("zip", "application/zip");
+        TYPES.put("wasm", "application/wasm");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * @param path file name or path
+     * @return MIME type for the extension of <code>path</code>
+     */
+    public static String forPath(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return DEFAULT;
+        }
+        String type = TYPES.get(path.substring(dot + 1).toLowerCase());
+        return type != null ? type : DEFAULT;
+    }
+
+    /**
+     * @param mimeType MIME type
+     * @return <code>true</code> for textual types, which are served as UTF-8
+     */
+    public static boolean isText(String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.equals("application/javascript")
+                || mimeType.equals("application/json")
+                || mimeType.equals("application/xml")
+                || mimeType.equals("image/svg+xml");
+    }
+}
@@ -0,0 +1,42 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads the web-app's package.json, which also carries the settings of the
+ * Java side (e.g. the "server" and "httpCache" sections), from the asset
+ * pack or the web-app directory.
+ */
+public final class PackageJson {
+    public static final String NAME = "package.json";
+
+    private PackageJson() {
+    }
+
+    /**
+     * @return the content of package.json, or <code>null</code> if there is none
+     */
+    public static String read() throws IOException {
+        AssetPack pack = AssetPack.findDefault();
+        if (pack != null) {
+            WebResources.Entry entry = pack.get(NAME);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer content = entry.getContent();
+            byte[] json = new byte[content.remaining()];
+            content.get(json);
+            return new String(json, StandardCharsets.UTF_8);
+        }
+
+        File file = new File(WebResources.DEFAULT_ROOT, NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
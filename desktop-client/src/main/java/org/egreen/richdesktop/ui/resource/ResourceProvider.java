@@ -0,0 +1,23 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.IOException;
+
+/**
+ * Source of web-app resources, either the web-app directory
+ * ({@link WebResources}) or a packed file ({@link AssetPack}).
+ */
+public interface ResourceProvider {
+    /**
+     * @param path resource path relative to the web-app root, using '/'
+     *             separators
+     * @return the resource, or <code>null</code> if there is none
+     */
+    WebResources.Entry get(String path) throws IOException;
+
+    /**
+     * @param encoding content coding, e.g. "gzip"
+     * @return a precompressed variant of the resource, or <code>null</code>
+     * if there is none
+     */
+    WebResources.Entry getEncoded(String path, String encoding) throws IOException;
+}
@@ -0,0 +1,119 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dev mode helper: watches the root of a {@link WebResources} and invalidates
+ * the cached entries as soon as the files change on disk.
+ */
+public class ResourceWatcher implements Closeable {
+    /**
+     * Dev mode is enabled with -Dbuntty.dev=true
+     */
+    public static final boolean DEV_MODE = Boolean.getBoolean("buntty.dev");
+
+    private final WebResources resources;
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Thread thread;
+
+    public ResourceWatcher(WebResources resources) throws IOException {
+        this.resources = resources;
+        this.root = resources.getRoot().toPath();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerAll(root);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "ResourceWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (directories) {
+                    directories.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir;
+            synchronized (directories) {
+                dir = directories.get(key);
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    // events were lost - start over
+                    resources.invalidateAll();
+                    continue;
+                }
+
+                Path changed = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        registerAll(changed);
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + changed + ": " + e);
+                    }
+                }
+
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    // might have been a directory with cached files below it
+                    resources.invalidateAll();
+                } else {
+                    resources.invalidate(root.relativize(changed).toString().replace(File.separatorChar, '/'));
+                }
+            }
+
+            if (!key.reset()) {
+                synchronized (directories) {
+                    directories.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,264 @@
+package org.egreen.richdesktop.ui.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory view of the web-app directory. Files are loaded on first
+ * access; small ones are read into the heap, larger ones are memory-mapped.
+ * Heap and mapped entries are capped separately and evicted least recently
+ * used first. Files too large to be mapped are not served from here.
+ */
+public class WebResources implements ResourceProvider {
+    public static final String DEFAULT_ROOT = "./web-app";
+
+    /**
+     * Files of this size and above are memory-mapped instead of read
+     */
+    public static final int MAP_THRESHOLD = 64 * 1024;
+
+    public static final long DEFAULT_MAX_HEAP_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_MAX_MAPPED_BYTES = 256L * 1024 * 1024;
+
+    private final File root;
+    private final String rootPath;
+    private final long maxHeapBytes;
+    private final long maxMappedBytes;
+
+    private static WebResources defaultResources;
+
+    // guarded by "this", in access order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long heapBytes;
+    private long mappedBytes;
+    // incremented by every invalidation, guarded by "this"
+    private long generation;
+
+    public WebResources(File root) throws IOException {
+        this(root, DEFAULT_MAX_HEAP_BYTES, DEFAULT_MAX_MAPPED_BYTES);
+    }
+
+    public WebResources(File root, long maxHeapBytes, long maxMappedBytes) throws IOException {
+        this.root = root.getCanonicalFile();
+        this.rootPath = this.root.getPath() + File.separator;
+        this.maxHeapBytes = maxHeapBytes;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * The web-app as served by LocalServer and the app:// scheme: both share
+     * this instance, so each file is cached and, in dev mode, watched once.
+     *
+     * @return resources of the directory returned by
+     * {@link AssetFingerprinter#prepare()}
+     */
+    public static synchronized WebResources getDefault() throws IOException {
+        if (defaultResources == null) {
+            WebResources resources = new WebResources(AssetFingerprinter.prepare());
+            if (ResourceWatcher.DEV_MODE) {
+                new ResourceWatcher(resources);
+            }
+            defaultResources = resources;
+        }
+        return defaultResources;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param path resource path relative to the root, using '/' separators
+     * @return the resource, or <code>null</code> if there is no such file or
+     * it is too large to be held in memory
+     * @throws IOException if the file couldn't be read
+     */
+    @Override
+    public Entry get(String path) throws IOException {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                return entry;
+            }
+            loadGeneration = generation;
+        }
+
+        File file = resolve(path);
+        if (file == null || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        Entry entry = load(path, file);
+        synchronized (this) {
+            Entry previous = entries.get(path);
+            if (previous != null) {
+                return previous;
+            }
+            // a file invalidated while it was loaded may be stale, don't
+            // keep it
+            if (generation == loadGeneration
+                    && entry.getLength() <= (entry.isMapped() ? maxMappedBytes : maxHeapBytes)) {
+                entries.put(path, entry);
+                account(entry, 1);
+                evict();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Files are served as they are, there are no precompressed variants.
+     */
+    @Override
+    public Entry getEncoded(String path, String encoding) {
+        return null;
+    }
+
+    /**
+     * Drop a cached resource, e.g. because the file has changed.
+     */
+    public synchronized void invalidate(String path) {
+        generation++;
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            account(entry, -1);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        heapBytes = 0;
+        mappedBytes = 0;
+    }
+
+    public synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    private void account(Entry entry, int sign) {
+        if (entry.isMapped()) {
+            mappedBytes += sign * entry.getLength();
+        } else {
+            heapBytes += sign * entry.getLength();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((heapBytes > maxHeapBytes || mappedBytes > maxMappedBytes) && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.isMapped() ? mappedBytes > maxMappedBytes : heapBytes > maxHeapBytes) {
+                it.remove();
+                account(entry, -1);
+            }
+        }
+    }
+
+    /**
+     * @return the file of a resource, e.g. to stream it instead of loading it,
+     * or <code>null</code> if there is no such file
+     */
+    public File findFile(String path) throws IOException {
+        return resolve(path);
+    }
+
+    /**
+     * Resolve <code>path</code> against the root. Paths escaping the root
+     * (e.g. "../") resolve to <code>null</code>.
+     */
+    protected File resolve(String path) throws IOException {
+        File file = new File(root, path).getCanonicalFile();
+        if (!file.getPath().startsWith(rootPath) || !file.isFile()) {
+            return null;
+        }
+        return file;
+    }
+
+    protected Entry load(String path, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be served from memory: " + file);
+            }
+
+            ByteBuffer content;
+            if (size >= MAP_THRESHOLD) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // keep reading
+                }
+                content.flip();
+            }
+
+            return new Entry(path, content.asReadOnlyBuffer(), MimeTypes.forPath(path),
+                             file.lastModified());
+        }
+    }
+
+    /**
+     * A loaded resource. The content buffer is shared, callers have to use
+     * {@link #getContent()} to get their own position/limit.
+     */
+    public static class Entry {
+        private final String path;
+        private final ByteBuffer content;
+        private final String mimeType;
+        private final long lastModified;
+        private final String etag;
+
+        public Entry(String path, ByteBuffer content, String mimeType, long lastModified) {
+            this.path = path;
+            this.content = content;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+            this.etag = "\"" + Long.toHexString(lastModified) + "-"
+                    + Integer.toHexString(content.remaining()) + "\"";
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        public int getLength() {
+            return content.remaining();
+        }
+
+        /**
+         * @return <code>true</code> if the content lives outside the heap
+         */
+        public boolean isMapped() {
+            return content.isDirect();
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+    }
+}
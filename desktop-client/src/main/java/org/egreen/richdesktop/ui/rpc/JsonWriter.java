@@ -0,0 +1,307 @@
+package org.egreen.richdesktop.ui.rpc;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer. Values are encoded straight into a small char
+ * buffer, which is flushed to the underlying {@link Writer} whenever it
+ * fills up, so arbitrarily large documents are written without building
+ * them as a String first.
+ * <pre>
+ * writer.beginObject().name("rows").beginArray();
+ * for (Row row : rows) {
+ *     writer.value(row.values());
+ * }
+ * writer.endArray().endObject().flush();
+ * </pre>
+ */
+public class JsonWriter implements Flushable, Closeable {
+    /**
+     * Values, which write themselves, e.g. lazily produced result sets.
+     */
+    public interface Streamable {
+        void writeJson(JsonWriter writer) throws IOException;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private final char[] buffer;
+    private int count;
+
+    // per nesting level: whether a value has been written, i.e. the next one needs a comma
+    private boolean[] hasValues = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this(out, 8192);
+    }
+
+    public JsonWriter(Writer out, int bufferSize) {
+        this.out = out;
+        this.buffer = new char[bufferSize];
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop();
+        write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop();
+        write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (afterName || depth == 0) {
+            throw new IllegalStateException("Unexpected name " + name);
+        }
+        beforeValue();
+        writeString(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        write("null");
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * NaN and infinite values, which JSON can't represent, are written as
+     * <code>null</code>.
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            write(Long.toString((long) value));
+        } else {
+            write(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Write any of: <code>null</code>, String, Number, Boolean, Character,
+     * Map, Iterable, Iterator, arrays and {@link Streamable}. Other objects
+     * are written as their toString(). Iterators and Streamables are
+     * consumed while writing, they are never materialized.
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            beforeValue();
+            write(value.toString());
+            return this;
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Streamable) {
+            int level = depth;
+            ((Streamable) value).writeJson(this);
+            if (depth != level) {
+                throw new IllegalStateException("Unbalanced JSON written by " + value);
+            }
+            return this;
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Iterable) {
+            return values(((Iterable<?>) value).iterator());
+        } else if (value instanceof Iterator) {
+            return values((Iterator<?>) value);
+        } else if (value.getClass().isArray()) {
+            beginArray();
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    private JsonWriter values(Iterator<?> values) throws IOException {
+        beginArray();
+        while (values.hasNext()) {
+            value(values.next());
+        }
+        return endArray();
+    }
+
+    /**
+     * Write the buffered output to the underlying writer and flush it.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValues[depth - 1]) {
+                write(',');
+            }
+            hasValues[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == hasValues.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(hasValues, 0, grown, 0, depth);
+            hasValues = grown;
+        }
+        hasValues[depth++] = false;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        depth--;
+    }
+
+    private void writeString(String s) throws IOException {
+        write('"');
+        int length = s.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String escaped;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "\\r";
+            } else if (c == '\t') {
+                escaped = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                // U+2028/9 are valid JSON but end a line in JavaScript
+                escaped = null;
+            } else {
+                continue;
+            }
+
+            write(s, start, i - start);
+            if (escaped != null) {
+                write(escaped);
+            } else {
+                write('\\');
+                write('u');
+                write(HEX[(c >> 12) & 0xF]);
+                write(HEX[(c >> 8) & 0xF]);
+                write(HEX[(c >> 4) & 0xF]);
+                write(HEX[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        write(s, start, length - start);
+        write('"');
+    }
+
+    private void write(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+    private void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int chunk = Math.min(length, buffer.length - count);
+            s.getChars(offset, offset + chunk, buffer, count);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.egreen.richdesktop.ui.rpc;
+
+/**
+ * Error returned to the caller of an RPC method. The codes follow JSON-RPC
+ * 2.0; methods may use their own codes outside the reserved range.
+ */
+public class RpcException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public static final int PARSE_ERROR = -32700;
+    public static final int INVALID_REQUEST = -32600;
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int INVALID_PARAMS = -32602;
+    public static final int INTERNAL_ERROR = -32603;
+
+    private final int code;
+
+    public RpcException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public RpcException(int code, String message, Throwable cause) {
+        super(message, cause);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
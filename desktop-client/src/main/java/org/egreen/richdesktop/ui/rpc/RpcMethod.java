@@ -0,0 +1,17 @@
+package org.egreen.richdesktop.ui.rpc;
+
+/**
+ * A method callable through {@link RpcRegistry}.
+ */
+public interface RpcMethod {
+    /**
+     * @param params the "params" of the call as parsed by Jetty's JSON: a
+     *               Map, an Object[] or <code>null</code>
+     * @return the result, anything {@link JsonWriter#value(Object)} can
+     * write. Large results should be returned as an Iterator or
+     * {@link JsonWriter.Streamable}, which are only consumed while the
+     * response is written.
+     * @throws RpcException to return a specific error to the caller
+     */
+    Object invoke(Object params) throws Exception;
+}
@@ -0,0 +1,60 @@
+package org.egreen.richdesktop.ui.rpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named RPC methods. Includes "system.listMethods", which returns the names
+ * of all registered methods.
+ */
+public class RpcRegistry {
+    private final ConcurrentMap<String, RpcMethod> methods = new ConcurrentHashMap<>();
+
+    public RpcRegistry() {
+        register("system.listMethods", new RpcMethod() {
+            @Override
+            public Object invoke(Object params) {
+                return getMethodNames();
+            }
+        });
+    }
+
+    public void register(String name, RpcMethod method) {
+        if (methods.putIfAbsent(name, method) != null) {
+            throw new IllegalArgumentException("RPC method " + name + " is already registered");
+        }
+    }
+
+    public void unregister(String name) {
+        methods.remove(name);
+    }
+
+    public List<String> getMethodNames() {
+        List<String> names = new ArrayList<>(methods.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return the method's result, see {@link RpcMethod#invoke(Object)}
+     * @throws RpcException if there is no such method or it failed; other
+     *                      exceptions are reported as internal errors
+     */
+    public Object invoke(String name, Object params) throws RpcException {
+        RpcMethod method = methods.get(name);
+        if (method == null) {
+            throw new RpcException(RpcException.METHOD_NOT_FOUND, "Method not found: " + name);
+        }
+        try {
+            return method.invoke(params);
+        } catch (RpcException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("RPC method " + name + " failed: " + e);
+            throw new RpcException(RpcException.INTERNAL_ERROR, e.toString(), e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.egreen.richdesktop.ui.server;
+
+import org.egreen.richdesktop.ui.resource.CachePolicy;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Sets the Cache-Control header of web-app responses according to
+ * {@link CachePolicy}: fingerprinted assets are immutable, everything else
+ * is revalidated.
+ */
+public class CacheControlHandler extends HandlerWrapper {
+
+    public CacheControlHandler(Handler handler) {
+        setHandler(handler);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        response.setHeader("Cache-Control", CachePolicy.cacheControlFor(target));
+        super.handle(target, baseRequest, request, response);
+    }
+}
@@ -0,0 +1,109 @@
+package org.egreen.richdesktop.ui.server;
+
+import org.egreen.richdesktop.ui.resource.AssetPack;
+import org.egreen.richdesktop.ui.resource.MimeTypes;
+import org.egreen.richdesktop.ui.resource.ResourceProvider;
+import org.egreen.richdesktop.ui.resource.WebResources;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves GET/HEAD requests for web-app resources from {@link WebResources}
+ * or an {@link AssetPack}. Requests for resources, which are not held in
+ * memory, are left to the next handler. Precompressed variants are sent to
+ * clients accepting them.
+ */
+public class CachedResourceHandler extends AbstractHandler {
+    private final ResourceProvider resources;
+
+    public CachedResourceHandler(ResourceProvider resources) {
+        this.resources = resources;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return;
+        }
+
+        String path = target.startsWith("/") ? target.substring(1) : target;
+        if (path.isEmpty() || path.endsWith("/")) {
+            path += "index.html";
+        }
+
+        WebResources.Entry entry = resources.get(path);
+        if (entry == null) {
+            return;
+        }
+        baseRequest.setHandled(true);
+
+        WebResources.Entry gzipEntry = resources.getEncoded(path, AssetPack.GZIP);
+        if (gzipEntry != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+            if (accepts(request.getHeader("Accept-Encoding"), AssetPack.GZIP)) {
+                response.setHeader("Content-Encoding", AssetPack.GZIP);
+                entry = gzipEntry;
+            }
+        }
+
+        response.setHeader("ETag", entry.getETag());
+        response.setDateHeader("Last-Modified", entry.getLastModified());
+        if (entry.getETag().equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String mimeType = entry.getMimeType();
+        response.setContentType(MimeTypes.isText(mimeType) ? mimeType + "; charset=utf-8" : mimeType);
+        response.setContentLength(entry.getLength());
+        if ("GET".equals(method)) {
+            // writes the heap or mapped buffer without copying it into a byte[]
+            ((HttpOutput) response.getOutputStream()).sendContent(entry.getContent());
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the Accept-Encoding header lists
+     * <code>coding</code>, or "*" without listing it, with a q-value above 0
+     */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String name = (semicolon >= 0 ? element.substring(0, semicolon) : element).trim();
+            boolean accepted = semicolon < 0 || qValue(element.substring(semicolon + 1)) > 0;
+            if (name.equalsIgnoreCase(coding)) {
+                return accepted;
+            }
+            if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard;
+    }
+
+    private static double qValue(String params) {
+        for (String param : params.split(";")) {
+            int equals = param.indexOf('=');
+            if (equals >= 0 && param.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                try {
+                    return Double.parseDouble(param.substring(equals + 1).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
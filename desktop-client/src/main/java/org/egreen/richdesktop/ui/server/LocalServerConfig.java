@@ -0,0 +1,170 @@
+package org.egreen.richdesktop.ui.server;
+
+import org.eclipse.jetty.util.ajax.JSON;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Jetty settings of LocalServer, read from the "server" section of the
+ * web-app's package.json:
+ * <pre>
+ * "server": {
+ *     "host": "127.0.0.1",
+ *     "port": 0,
+ *     "minThreads": 2,
+ *     "maxThreads": 8,
+ *     "threadIdleTimeout": 60000,
+ *     "acceptors": 1,
+ *     "selectors": 1,
+ *     "idleTimeout": 30000,
+ *     "virtualThreads": false
+ * }
+ * </pre>
+ * Missing values keep the defaults above, which fit a single local user.
+ * Port 0 lets the OS pick a free port, so startup can't fail because 8090
+ * is taken; the bound port is available from LocalServer once it started.
+ */
+public class LocalServerConfig {
+    private String host = "127.0.0.1";
+    private int port = 0;
+    private int minThreads = 2;
+    private int maxThreads = 8;
+    private int threadIdleTimeout = 60000;
+    private int acceptors = 1;
+    private int selectors = 1;
+    private long idleTimeout = 30000;
+    private boolean virtualThreads;
+
+    /**
+     * @param packageJson the web-app's package.json; if it doesn't exist the
+     *                    defaults are used
+     */
+    public static LocalServerConfig load(File packageJson) throws IOException {
+        if (!packageJson.isFile()) {
+            return new LocalServerConfig();
+        }
+        return parse(new String(Files.readAllBytes(packageJson.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param json content of package.json
+     */
+    public static LocalServerConfig parse(String json) {
+        LocalServerConfig config = new LocalServerConfig();
+        Object parsed = JSON.parse(json);
+        if (parsed instanceof Map) {
+            Object server = ((Map<?, ?>) parsed).get("server");
+            if (server instanceof Map) {
+                config.apply((Map<?, ?>) server);
+            }
+        }
+        return config;
+    }
+
+    private void apply(Map<?, ?> server) {
+        Object hostValue = server.get("host");
+        if (hostValue instanceof String) {
+            host = (String) hostValue;
+        }
+        port = intValue(server, "port", port);
+        minThreads = intValue(server, "minThreads", minThreads);
+        maxThreads = intValue(server, "maxThreads", maxThreads);
+        threadIdleTimeout = intValue(server, "threadIdleTimeout", threadIdleTimeout);
+        acceptors = intValue(server, "acceptors", acceptors);
+        selectors = intValue(server, "selectors", selectors);
+        idleTimeout = intValue(server, "idleTimeout", (int) idleTimeout);
+        Object virtual = server.get("virtualThreads");
+        if (virtual instanceof Boolean) {
+            virtualThreads = (Boolean) virtual;
+        }
+
+        if (acceptors < 1) {
+            acceptors = 1;
+        }
+        if (selectors < 1) {
+            selectors = 1;
+        }
+        // Jetty refuses to start, if acceptors and selectors leave no thread for requests
+        int required = acceptors + selectors + 1;
+        if (maxThreads < required) {
+            System.err.println("server.maxThreads " + maxThreads + " is too small, using " + required);
+            maxThreads = required;
+        }
+        if (minThreads > maxThreads) {
+            minThreads = maxThreads;
+        }
+    }
+
+    private static int intValue(Map<?, ?> map, String key, int defaultValue) {
+        Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * @return a virtual-thread executor if requested and the JVM supports it,
+     * a bounded {@link QueuedThreadPool} otherwise
+     */
+    public ThreadPool createThreadPool() {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                return new ExecutorThreadPool(executor);
+            }
+            System.err.println("Virtual threads are not supported by this JVM, using a thread pool");
+        }
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, threadIdleTimeout);
+        threadPool.setName("LocalServer");
+        return threadPool;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+}
@@ -0,0 +1,43 @@
+package org.egreen.richdesktop.ui.server;
+
+import org.egreen.richdesktop.ui.waterfall.ResourceTiming;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the start and end of every request to the {@link WaterfallRecorder},
+ * where they are joined with the browser's timings of the same request.
+ */
+public class RequestTimingHandler extends HandlerWrapper {
+    private final WaterfallRecorder recorder;
+
+    public RequestTimingHandler(Handler handler, WaterfallRecorder recorder) {
+        this.recorder = recorder;
+        setHandler(handler);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        StringBuffer url = request.getRequestURL();
+        if (request.getQueryString() != null) {
+            url.append('?').append(request.getQueryString());
+        }
+        ResourceTiming timing = recorder.serverRequestStarted(
+                request.getHeader(WaterfallRecorder.HEADER), url.toString(),
+                request.getMethod(), WaterfallRecorder.SOURCE_LOCAL_SERVER);
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            recorder.serverRequestFinished(timing, response.getStatus(),
+                                           baseRequest.getResponse().getHttpOutput().getWritten());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.egreen.richdesktop.ui.server;
+
+import org.egreen.richdesktop.ui.rpc.JsonWriter;
+import org.egreen.richdesktop.ui.rpc.RpcException;
+import org.egreen.richdesktop.ui.rpc.RpcRegistry;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ajax.JSON;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * JSON-RPC 2.0 over POST. The body is a single call or a batch (an array of
+ * calls):
+ * <pre>
+ * {"jsonrpc": "2.0", "id": 1, "method": "system.listMethods", "params": {}}
+ * </pre>
+ * Results are streamed into the response with {@link JsonWriter}, there is
+ * no intermediate String of the whole response. Calls without an id are
+ * notifications and get no response entry.
+ * <p/>
+ * Only application/json requests are accepted. Browsers can't send those
+ * cross-origin without a CORS preflight, which this handler doesn't
+ * answer, so other web pages can't call into the application.
+ */
+public class RpcHandler extends AbstractHandler {
+    private final RpcRegistry registry;
+
+    public RpcHandler(RpcRegistry registry) {
+        this.registry = registry;
+    }
+
+    public RpcRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        baseRequest.setHandled(true);
+        response.setHeader("Cache-Control", "no-store");
+
+        if (!"POST".equals(request.getMethod())) {
+            response.setHeader("Allow", "POST");
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase().startsWith("application/json")) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        Object body;
+        try {
+            body = JSON.parse(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            JsonWriter writer = startResponse(response);
+            writeError(writer, null, new RpcException(RpcException.PARSE_ERROR, "Parse error: " + e.getMessage()));
+            writer.flush();
+            return;
+        }
+
+        if (body instanceof Object[] && ((Object[]) body).length > 0) {
+            Object[] calls = (Object[]) body;
+            if (!hasResponses(calls)) {
+                for (Object call : calls) {
+                    handleCall(null, call);
+                }
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                return;
+            }
+
+            JsonWriter writer = startResponse(response);
+            writer.beginArray();
+            for (Object call : calls) {
+                handleCall(writer, call);
+            }
+            writer.endArray();
+            writer.flush();
+        } else if (body instanceof Map && !((Map<?, ?>) body).containsKey("id")) {
+            handleCall(null, body);
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else {
+            JsonWriter writer = startResponse(response);
+            handleCall(writer, body);
+            writer.flush();
+        }
+    }
+
+    private static boolean hasResponses(Object[] calls) {
+        for (Object call : calls) {
+            // invalid calls are answered with an error
+            if (!(call instanceof Map) || ((Map<?, ?>) call).containsKey("id")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static JsonWriter startResponse(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json; charset=utf-8");
+        return new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param writer where to write the response, <code>null</code> if none
+     *               is expected
+     */
+    private void handleCall(JsonWriter writer, Object call) throws IOException {
+        if (!(call instanceof Map)) {
+            if (writer != null) {
+                writeError(writer, null, new RpcException(RpcException.INVALID_REQUEST, "Invalid request"));
+            }
+            return;
+        }
+
+        Map<?, ?> map = (Map<?, ?>) call;
+        Object id = map.get("id");
+        Object method = map.get("method");
+        boolean notification = !map.containsKey("id");
+
+        Object result;
+        try {
+            if (!(method instanceof String)) {
+                throw new RpcException(RpcException.INVALID_REQUEST, "Invalid request: no method");
+            }
+            result = registry.invoke((String) method, map.get("params"));
+        } catch (RpcException e) {
+            if (!notification && writer != null) {
+                writeError(writer, id, e);
+            }
+            return;
+        }
+        if (notification || writer == null) {
+            return;
+        }
+
+        // lazy results are evaluated here; a failure now leaves the response
+        // truncated, Jetty aborts the connection so the client sees an error
+        writer.beginObject()
+              .name("jsonrpc").value("2.0")
+              .name("id").value(id)
+              .name("result").value(result)
+              .endObject();
+    }
+
+    private static void writeError(JsonWriter writer, Object id, RpcException e) throws IOException {
+        writer.beginObject()
+              .name("jsonrpc").value("2.0")
+              .name("id").value(id)
+              .name("error").beginObject()
+              .name("code").value(e.getCode())
+              .name("message").value(e.getMessage())
+              .endObject()
+              .endObject();
+    }
+}
@@ -30,14 +30,17 @@ import org.cef.handler.CefDialogHandler.FileDialogMode;
 import org.cef.network.CefCookieManager;
 import org.cef.network.CefRequest;
 
-import tests.detailed.dialog.CookieManagerDialog;
-import tests.detailed.dialog.DevToolsDialog;
-import tests.detailed.dialog.DownloadDialog;
-import tests.detailed.dialog.SearchDialog;
-import tests.detailed.dialog.ShowTextDialog;
-import tests.detailed.dialog.UrlRequestDialog;
-import tests.detailed.dialog.WebPluginManagerDialog;
-import tests.detailed.ui.ControlPanel;
+import org.egreen.richdesktop.ui.bridge.BridgeMetrics;
+import org.egreen.richdesktop.ui.dialog.BridgeMetricsDialog;
+import org.egreen.richdesktop.ui.dialog.CookieManagerDialog;
+import org.egreen.richdesktop.ui.dialog.DevToolsDialog;
+import org.egreen.richdesktop.ui.dialog.DownloadDialog;
+import org.egreen.richdesktop.ui.dialog.SearchDialog;
+import org.egreen.richdesktop.ui.dialog.ShowTextDialog;
+import org.egreen.richdesktop.ui.dialog.UrlRequestDialog;
+import org.egreen.richdesktop.ui.dialog.WaterfallDialog;
+import org.egreen.richdesktop.ui.dialog.WebPluginManagerDialog;
+import org.egreen.richdesktop.ui.waterfall.WaterfallRecorder;
 
 @SuppressWarnings("serial")
 public class MenuBar extends JMenuBar {
@@ -335,6 +338,24 @@ public class MenuBar extends JMenuBar {
     });
     testMenu.add(showDevTools);
 
+    JMenuItem showWaterfall = new JMenuItem("Show Page Load Waterfall");
+    showWaterfall.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        new WaterfallDialog(owner_, WaterfallRecorder.getInstance()).setVisible(true);
+      }
+    });
+    testMenu.add(showWaterfall);
+
+    JMenuItem showBridgeMetrics = new JMenuItem("Show Bridge Metrics");
+    showBridgeMetrics.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        new BridgeMetricsDialog(owner_, BridgeMetrics.getInstance()).setVisible(true);
+      }
+    });
+    testMenu.add(showBridgeMetrics);
+
     JMenuItem testURLRequest = new JMenuItem("URL Request");
     testURLRequest.addActionListener(new ActionListener() {
       @Override
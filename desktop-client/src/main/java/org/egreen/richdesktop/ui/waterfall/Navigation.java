@@ -0,0 +1,157 @@
+package org.egreen.richdesktop.ui.waterfall;
+
+import org.egreen.richdesktop.ui.rpc.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page load: from the browser's navigation request until the last
+ * frame finished loading, with the timings of all resources requested in
+ * between. In the JSON export all times are milliseconds relative to the
+ * start of the navigation, -1 for events that weren't seen.
+ */
+public class Navigation implements JsonWriter.Streamable {
+    // a long-lived page keeps adding XHRs to its navigation
+    public static final int MAX_RESOURCES = 1000;
+
+    private final long id;
+    private final String url;
+    private final long start;
+
+    private final List<ResourceTiming> resources = new ArrayList<>();
+    private int droppedResources;
+    // frame id -> {load start, load end, HTTP status}
+    private final Map<Integer, long[]> frames = new HashMap<>();
+    private volatile long end;
+
+    Navigation(long id, String url, long start) {
+        this.id = id;
+        this.url = url;
+        this.start = start;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return when the last frame finished loading, 0 while still loading
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public synchronized List<ResourceTiming> getResources() {
+        return new ArrayList<>(resources);
+    }
+
+    /**
+     * @return number of requests not recorded, because there were more than
+     * {@value #MAX_RESOURCES}
+     */
+    public synchronized int getDroppedResources() {
+        return droppedResources;
+    }
+
+    /**
+     * @return <code>false</code> if the navigation is full
+     */
+    synchronized boolean addResource(ResourceTiming resource) {
+        if (resources.size() >= MAX_RESOURCES) {
+            droppedResources++;
+            return false;
+        }
+        resources.add(resource);
+        return true;
+    }
+
+    synchronized ResourceTiming findResource(long id, String url) {
+        // newest first, the same URL may be requested several times
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            ResourceTiming resource = resources.get(i);
+            if (id >= 0 ? resource.getId() == id
+                        : resource.serverStart == 0 && resource.getUrl().equals(url)) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    synchronized void frameLoadStart(int frameId, long time) {
+        frames.put(frameId, new long[]{time, 0, -1});
+    }
+
+    /**
+     * @return <code>true</code> if all frames finished loading
+     */
+    synchronized boolean frameLoadEnd(int frameId, int httpStatusCode, long time) {
+        long[] frame = frames.get(frameId);
+        if (frame == null) {
+            frame = new long[]{0, 0, -1};
+            frames.put(frameId, frame);
+        }
+        frame[1] = time;
+        frame[2] = httpStatusCode;
+
+        for (long[] f : frames.values()) {
+            if (f[1] == 0) {
+                return false;
+            }
+        }
+        end = time;
+        return true;
+    }
+
+    public double toMillis(long nanos) {
+        return nanos == 0 ? -1 : (nanos - start) / 1e6;
+    }
+
+    @Override
+    public synchronized void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject()
+              .name("id").value(id)
+              .name("url").value(url)
+              .name("duration").value(toMillis(end))
+              .name("droppedResources").value(droppedResources);
+
+        writer.name("frames").beginArray();
+        for (Map.Entry<Integer, long[]> frame : frames.entrySet()) {
+            writer.beginObject()
+                  .name("id").value(frame.getKey().longValue())
+                  .name("loadStart").value(toMillis(frame.getValue()[0]))
+                  .name("loadEnd").value(toMillis(frame.getValue()[1]))
+                  .name("status").value(frame.getValue()[2])
+                  .endObject();
+        }
+        writer.endArray();
+
+        writer.name("resources").beginArray();
+        for (ResourceTiming resource : resources) {
+            writer.beginObject()
+                  .name("url").value(resource.getUrl())
+                  .name("method").value(resource.getMethod())
+                  .name("source").value(resource.getSource())
+                  .name("status").value(resource.getStatus())
+                  .name("bytes").value(resource.getBytes())
+                  .name("browserStart").value(toMillis(resource.getBrowserStart()))
+                  .name("serverStart").value(toMillis(resource.getServerStart()))
+                  .name("serverEnd").value(toMillis(resource.getServerEnd()))
+                  .endObject();
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+}
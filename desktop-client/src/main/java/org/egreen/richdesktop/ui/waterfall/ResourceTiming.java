@@ -0,0 +1,68 @@
+package org.egreen.richdesktop.ui.waterfall;
+
+/**
+ * Timing of one resource request of a {@link Navigation}. All times are
+ * System.nanoTime() values, 0 if the event wasn't seen, e.g. requests
+ * answered from the browser cache never reach the server.
+ */
+public class ResourceTiming {
+    private final long id;
+    private final String url;
+    private final String method;
+
+    volatile long browserStart;
+    volatile long serverStart;
+    volatile long serverEnd;
+    volatile String source;
+    volatile int status = -1;
+    volatile long bytes = -1;
+
+    ResourceTiming(long id, String url, String method) {
+        this.id = id;
+        this.url = url;
+        this.method = method;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return when the browser issued the request
+     */
+    public long getBrowserStart() {
+        return browserStart;
+    }
+
+    public long getServerStart() {
+        return serverStart;
+    }
+
+    public long getServerEnd() {
+        return serverEnd;
+    }
+
+    /**
+     * @return what served the request, e.g. {@link WaterfallRecorder#SOURCE_LOCAL_SERVER},
+     * <code>null</code> if no server side timing was recorded
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
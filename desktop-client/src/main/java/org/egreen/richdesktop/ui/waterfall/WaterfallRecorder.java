@@ -0,0 +1,201 @@
+package org.egreen.richdesktop.ui.waterfall;
+
+import org.egreen.richdesktop.ui.rpc.JsonWriter;
+import org.egreen.richdesktop.ui.rpc.RpcMethod;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Joins browser and server side timings into per-navigation waterfalls.
+ * <p/>
+ * The browser side (RequestHandler, LoadHandler) reports navigations, frame
+ * loads and resource requests; requests to LocalServer and the app:// scheme
+ * get an {@value #HEADER} header, by which the server side (RequestTimingHandler,
+ * AppSchemeHandler) finds the request again. Requests without the header are
+ * matched by URL. Browser and server run in the same JVM, so all times come
+ * from the same System.nanoTime() clock.
+ */
+public class WaterfallRecorder implements JsonWriter.Streamable {
+    public static final String HEADER = "X-Waterfall-Id";
+    public static final String SOURCE_LOCAL_SERVER = "LocalServer";
+    public static final String SOURCE_APP_SCHEME = "app";
+
+    public static final int MAX_NAVIGATIONS = 20;
+
+    private static final WaterfallRecorder INSTANCE = new WaterfallRecorder();
+
+    private final AtomicLong ids = new AtomicLong();
+    // guarded by "this", oldest first
+    private final LinkedList<Navigation> navigations = new LinkedList<>();
+    private Navigation current;
+
+    public static WaterfallRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The browser starts loading <code>url</code>. Navigations of sub frames
+     * while a page is loading are part of that page's navigation. A main
+     * frame navigation always starts a new one, even if the previous one
+     * never ended, e.g. because a frame was removed while it was loading.
+     */
+    public synchronized void navigationStarted(String url, boolean mainFrame) {
+        if (!mainFrame && current != null && current.getEnd() == 0) {
+            return;
+        }
+        current = new Navigation(ids.incrementAndGet(), url, System.nanoTime());
+        navigations.add(current);
+        if (navigations.size() > MAX_NAVIGATIONS) {
+            navigations.removeFirst();
+        }
+    }
+
+    public synchronized void frameLoadStart(int frameId) {
+        if (current == null || current.getEnd() != 0) {
+            // e.g. a reload, which doesn't go through onBeforeBrowse
+            navigationStarted("", true);
+        }
+        current.frameLoadStart(frameId, System.nanoTime());
+    }
+
+    public synchronized void frameLoadEnd(int frameId, int httpStatusCode) {
+        if (current != null && current.getEnd() == 0) {
+            current.frameLoadEnd(frameId, httpStatusCode, System.nanoTime());
+        }
+    }
+
+    /**
+     * The browser issues a request. Requests after the page finished loading
+     * (XHR etc.) are added to the last navigation, up to
+     * {@value Navigation#MAX_RESOURCES}.
+     *
+     * @return id to send along in the {@value #HEADER} header, -1 if there is
+     * no navigation to add the request to
+     */
+    public synchronized long resourceRequested(String url, String method) {
+        if (current == null) {
+            return -1;
+        }
+        ResourceTiming resource = new ResourceTiming(ids.incrementAndGet(), url, method);
+        resource.browserStart = System.nanoTime();
+        if (!current.addResource(resource)) {
+            return -1;
+        }
+        return resource.getId();
+    }
+
+    /**
+     * A server starts handling a request.
+     *
+     * @param idHeader value of the {@value #HEADER} header, may be <code>null</code>
+     * @return the timing to pass to {@link #serverRequestFinished}, or
+     * <code>null</code> if the request isn't recorded
+     */
+    public synchronized ResourceTiming serverRequestStarted(String idHeader, String url,
+                                                           String method, String source) {
+        long now = System.nanoTime();
+        long id = parseId(idHeader);
+
+        ResourceTiming resource = null;
+        for (int i = navigations.size() - 1; i >= 0 && resource == null; i--) {
+            resource = navigations.get(i).findResource(id, url);
+        }
+        if (resource == null) {
+            if (current == null) {
+                return null;
+            }
+            // not seen by the browser side, e.g. a request of another client
+            resource = new ResourceTiming(ids.incrementAndGet(), url, method);
+            if (!current.addResource(resource)) {
+                return null;
+            }
+        }
+        resource.source = source;
+        resource.serverStart = now;
+        return resource;
+    }
+
+    public void serverRequestFinished(ResourceTiming resource, int status, long bytes) {
+        if (resource != null) {
+            resource.status = status;
+            resource.bytes = bytes;
+            resource.serverEnd = System.nanoTime();
+        }
+    }
+
+    private static long parseId(String idHeader) {
+        if (idHeader == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(idHeader.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return <code>true</code> for URLs served by the application itself,
+     * which may be tagged with the {@value #HEADER} header
+     */
+    public static boolean isLocal(String url) {
+        try {
+            URI uri = new URI(url);
+            String host = uri.getHost();
+            return "app".equals(uri.getScheme())
+                    || "127.0.0.1".equals(host) || "localhost".equals(host);
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the recorded navigations, oldest first
+     */
+    public synchronized List<Navigation> getNavigations() {
+        return new ArrayList<>(navigations);
+    }
+
+    public synchronized void clear() {
+        navigations.clear();
+        current = null;
+    }
+
+    @Override
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (Navigation navigation : getNavigations()) {
+            writer.value(navigation);
+        }
+        writer.endArray();
+    }
+
+    public void exportJson(File file) throws IOException {
+        try (JsonWriter writer = new JsonWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeJson(writer);
+        }
+    }
+
+    /**
+     * @return RPC method returning the JSON export, see LocalServer
+     */
+    public RpcMethod createRpcMethod() {
+        return new RpcMethod() {
+            @Override
+            public Object invoke(Object params) {
+                return WaterfallRecorder.this;
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package org.egreen.teslar.core.client;
+
+import org.egreen.teslar.core.server.TeslarEchoServer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.nio.transport.UDPNIOTransport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback packets/second benchmark of the UDP echo service.
+ * <p/>
+ * The echo transport is started in-process on an ephemeral loopback port.
+ * Every client thread keeps a window of datagrams in flight and counts the
+ * echoed ones.
+ * <p/>
+ * Usage:
+ * <pre>
+ * DatagramBenchmark [--clients 4] [--window 64] [--size 64] [--duration 10]
+ * </pre>
+ */
+public class DatagramBenchmark {
+    // a window is considered lost, if nothing came back for this long
+    private static final long LOSS_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public static void main(String[] args) throws Exception {
+        int clients = 4;
+        int window = 64;
+        int size = 64;
+        int durationSeconds = 10;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final int value = Integer.parseInt(args[i + 1]);
+            if ("--clients".equals(args[i])) {
+                clients = value;
+            } else if ("--window".equals(args[i])) {
+                window = value;
+            } else if ("--size".equals(args[i])) {
+                size = value;
+            } else if ("--duration".equals(args[i])) {
+                durationSeconds = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (clients <= 0 || window <= 0 || size <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("All the options must be positive");
+        }
+
+        final UDPNIOTransport transport = TeslarEchoServer.createDatagramTransport();
+        try {
+            final Connection serverConnection = transport.bind("127.0.0.1", 0);
+            transport.start();
+            final InetSocketAddress serverAddress =
+                    (InetSocketAddress) serverConnection.getLocalAddress();
+
+            final AtomicLong received = new AtomicLong();
+            final AtomicLong lost = new AtomicLong();
+            final long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+            final Thread[] threads = new Thread[clients];
+            for (int i = 0; i < clients; i++) {
+                threads[i] = new ClientThread(serverAddress, window, size, endNanos, received, lost);
+                threads[i].start();
+            }
+
+            long last = 0;
+            while (System.nanoTime() < endNanos) {
+                Thread.sleep(1000);
+                final long now = received.get();
+                System.out.println("  " + (now - last) + " packets/s");
+                last = now;
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            System.out.println();
+            System.out.println("Clients: " + clients + ", window: " + window + ", payload: " + size + " bytes");
+            System.out.println("Echoed:  " + received.get() + " packets, "
+                    + String.format("%.0f", received.get() / (double) durationSeconds) + " packets/s");
+            System.out.println("Lost:    " + lost.get() + " packets");
+        } finally {
+            transport.shutdownNow();
+        }
+    }
+
+    /**
+     * Client, which keeps <tt>window</tt> datagrams in flight.
+     */
+    private static class ClientThread extends Thread {
+        private final InetSocketAddress serverAddress;
+        private final int window;
+        private final int size;
+        private final long endNanos;
+        private final AtomicLong received;
+        private final AtomicLong lost;
+
+        ClientThread(InetSocketAddress serverAddress, int window, int size,
+                     long endNanos, AtomicLong received, AtomicLong lost) {
+            super("DatagramBenchmark-client");
+            this.serverAddress = serverAddress;
+            this.window = window;
+            this.size = size;
+            this.endNanos = endNanos;
+            this.received = received;
+            this.lost = lost;
+        }
+
+        @Override
+        public void run() {
+            DatagramChannel channel = null;
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(serverAddress);
+
+                final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(size);
+                final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(size);
+
+                int inFlight = 0;
+                long lastReceiveNanos = System.nanoTime();
+                long now;
+                while ((now = System.nanoTime()) < endNanos) {
+                    while (inFlight < window) {
+                        sendBuffer.clear();
+                        if (channel.write(sendBuffer) == 0) {
+                            break;
+                        }
+                        inFlight++;
+                    }
+
+                    boolean gotAny = false;
+                    while (true) {
+                        receiveBuffer.clear();
+                        if (channel.read(receiveBuffer) <= 0) {
+                            break;
+                        }
+                        // late echoes of a window counted as lost may still arrive
+                        if (inFlight > 0) {
+                            inFlight--;
+                        }
+                        received.incrementAndGet();
+                        gotAny = true;
+                    }
+
+                    if (gotAny) {
+                        lastReceiveNanos = now;
+                    } else if (now - lastReceiveNanos > LOSS_TIMEOUT_NANOS) {
+                        lost.addAndGet(inFlight);
+                        inFlight = 0;
+                        lastReceiveNanos = now;
+                    } else {
+                        LockSupport.parkNanos(1000);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,13 +2,14 @@ package org.egreen.teslar.core.client;
 
 import org.egreen.teslar.core.server.TeslarEchoServer;
 import org.egreen.teslar.core.server.filter.ClientFilter;
+import org.egreen.teslar.core.server.filter.FrameCodecFilter;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.filterchain.FilterChainBuilder;
 import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.memory.Buffers;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
-import org.glassfish.grizzly.utils.StringFilter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -36,8 +37,8 @@ public class EchoClient{
             // Add TransportFilter, which is responsible
             // for reading and writing data to the connection
             filterChainBuilder.add(new TransportFilter());
-            // StringFilter is responsible for Buffer <-> String conversion
-            filterChainBuilder.add(new StringFilter(Charset.forName("UTF-8")));
+            // FrameCodecFilter is responsible for splitting the stream into length-prefixed frames
+            filterChainBuilder.add(new FrameCodecFilter());
             // ClientFilter is responsible for redirecting server responses to the standard output
             filterChainBuilder.add(new ClientFilter());
 
@@ -66,7 +67,8 @@ public class EchoClient{
                         break;
                     }
 
-                    connection.write(userInput);
+                    connection.write(Buffers.wrap(transport.getMemoryManager(),
+                            userInput, Charset.forName("UTF-8")));
                 } while (true);
             } finally {
                 // close the client connection
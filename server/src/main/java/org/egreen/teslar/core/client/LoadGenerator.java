@@ -0,0 +1,334 @@
+package org.egreen.teslar.core.client;
+
+import org.egreen.teslar.core.server.TeslarEchoServer;
+import org.egreen.teslar.core.server.filter.FrameCodecFilter;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.HttpClientFilter;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Open-model load generator for the echo ({@link org.egreen.teslar.core.server.filter.TeslarFilter})
+ * and HTTP services.
+ * <p/>
+ * Requests are sent on a fixed schedule derived from the target rate, no
+ * matter whether earlier responses have arrived. Latency is measured from the
+ * <em>intended</em> send time of a request, so stalls of the server (or of the
+ * generator itself) are not hidden by coordinated omission.
+ * <p/>
+ * Usage:
+ * <pre>
+ * LoadGenerator [--mode echo|http] [--host localhost] [--port 7777]
+ *               [--connections 16] [--rate 1000] [--duration 30]
+ *               [--size 64] [--path /time]
+ * </pre>
+ * Only local targets are accepted.
+ */
+public class LoadGenerator {
+    private static final Logger logger = Grizzly.logger(LoadGenerator.class);
+
+    private static final Attribute<ConnectionState> STATE_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    LoadGenerator.class.getName() + ".state");
+
+    private final Settings settings;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public LoadGenerator(Settings settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Settings settings = Settings.parse(args);
+        new LoadGenerator(settings).run();
+    }
+
+    /**
+     * Open the connections, drive the target for the configured duration and
+     * print the report.
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException, InterruptedException,
+            ExecutionException, TimeoutException {
+        checkLocalTarget(settings.host);
+
+        final FilterChainBuilder filterChainBuilder = FilterChainBuilder.stateless();
+        filterChainBuilder.add(new TransportFilter());
+        if (settings.http) {
+            filterChainBuilder.add(new HttpClientFilter());
+        } else {
+            filterChainBuilder.add(new FrameCodecFilter());
+        }
+        filterChainBuilder.add(new ResponseFilter());
+
+        final TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setProcessor(filterChainBuilder.build());
+
+        final List<Connection> connections = new ArrayList<Connection>(settings.connections);
+        try {
+            transport.start();
+
+            for (int i = 0; i < settings.connections; i++) {
+                final Connection connection =
+                        transport.connect(settings.host, settings.port).get(10, TimeUnit.SECONDS);
+                STATE_ATTR.set(connection, new ConnectionState());
+                connections.add(connection);
+            }
+
+            System.out.println("Connected " + connections.size() + " connection(s) to "
+                    + settings.host + ":" + settings.port + ", target rate "
+                    + settings.rate + " req/s for " + settings.durationSeconds + " s");
+
+            drive(connections, transport.getMemoryManager());
+            report();
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            transport.shutdownNow();
+        }
+    }
+
+    /**
+     * Send requests on the open-model schedule.
+     */
+    private void drive(List<Connection> connections, MemoryManager memoryManager)
+            throws InterruptedException {
+        final byte[] payload = new byte[settings.size];
+        Arrays.fill(payload, (byte) 'x');
+
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / settings.rate;
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+        long nextReportNanos = startNanos + TimeUnit.SECONDS.toNanos(1);
+        long lastCompleted = 0;
+
+        for (long i = 0; ; i++) {
+            final long intendedNanos = startNanos + i * intervalNanos;
+            if (intendedNanos >= endNanos) {
+                break;
+            }
+
+            long now;
+            while ((now = System.nanoTime()) < intendedNanos) {
+                LockSupport.parkNanos(intendedNanos - now);
+            }
+
+            final Connection connection = connections.get((int) (i % connections.size()));
+            final ConnectionState state = STATE_ATTR.get(connection);
+            state.intendedStarts.offer(intendedNanos);
+            sent.incrementAndGet();
+
+            try {
+                // each write gets its own (zero-copy) view of the payload
+                connection.write(settings.http ? createHttpRequest()
+                        : Buffers.wrap(memoryManager, payload));
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                logger.log(Level.FINE, "Write failed", e);
+            }
+
+            if (now >= nextReportNanos) {
+                final long done = completed.get();
+                System.out.println("  " + (done - lastCompleted) + " resp/s, "
+                        + (sent.get() - done) + " in flight");
+                lastCompleted = done;
+                nextReportNanos += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+
+        // give the outstanding requests a chance to complete
+        final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (completed.get() + errors.get() < sent.get()
+                && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void report() {
+        final long sentCount = sent.get();
+        final long completedCount = completed.get();
+        System.out.println();
+        System.out.println("Requests sent:      " + sentCount);
+        System.out.println("Responses received: " + completedCount);
+        System.out.println("Failed/unanswered:  " + (sentCount - completedCount));
+        System.out.println("Throughput:         "
+                + String.format("%.1f", completedCount / (double) settings.durationSeconds) + " resp/s");
+        System.out.println("Latency, corrected for coordinated omission (ms):");
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            System.out.println(String.format("  p%-6s %10.3f", percentile,
+                    histogram.getValueAtPercentile(percentile) / 1e6));
+        }
+        System.out.println(String.format("  max     %10.3f", histogram.getMaxValue() / 1e6));
+    }
+
+    private HttpRequestPacket createHttpRequest() {
+        return HttpRequestPacket.builder().method("GET")
+                .uri(settings.path).protocol(Protocol.HTTP_1_1)
+                .header("Host", settings.host).build();
+    }
+
+    /**
+     * Make sure we never generate load against a remote host.
+     */
+    private static void checkLocalTarget(String host) throws IOException {
+        final InetAddress address = InetAddress.getByName(host);
+        if (!address.isLoopbackAddress() && !address.isAnyLocalAddress()
+                && NetworkInterface.getByInetAddress(address) == null) {
+            throw new IllegalArgumentException("Refusing to generate load against non-local host " + host);
+        }
+    }
+
+    /**
+     * Per connection state: intended send times of the outstanding requests.
+     * Both protocols answer in order, so the head of the queue belongs to the
+     * next response.
+     */
+    private static class ConnectionState {
+        final Queue<Long> intendedStarts = new ConcurrentLinkedQueue<Long>();
+    }
+
+    /**
+     * Filter, which matches responses to the outstanding requests and records
+     * their latency.
+     */
+    private class ResponseFilter extends BaseFilter {
+        @Override
+        public NextAction handleRead(FilterChainContext ctx) throws IOException {
+            final Object message = ctx.getMessage();
+
+            if (message instanceof HttpContent) {
+                final HttpContent httpContent = (HttpContent) message;
+                final Buffer content = httpContent.getContent();
+                if (content.hasRemaining()) {
+                    content.dispose();
+                }
+                if (!httpContent.isLast()) {
+                    return ctx.getStopAction();
+                }
+            }
+
+            final ConnectionState state = STATE_ATTR.get(ctx.getConnection());
+            final Long intendedNanos = state.intendedStarts.poll();
+            if (intendedNanos != null) {
+                histogram.record(System.nanoTime() - intendedNanos);
+                completed.incrementAndGet();
+            }
+
+            return ctx.getStopAction();
+        }
+
+        @Override
+        public NextAction handleClose(FilterChainContext ctx) throws IOException {
+            final ConnectionState state = STATE_ATTR.get(ctx.getConnection());
+            if (state != null) {
+                while (state.intendedStarts.poll() != null) {
+                    errors.incrementAndGet();
+                }
+            }
+            return ctx.getStopAction();
+        }
+    }
+
+    /**
+     * Command line settings
+     */
+    public static class Settings {
+        boolean http;
+        String host = "localhost";
+        int port = TeslarEchoServer.PORT;
+        int connections = 16;
+        int rate = 1000;
+        int durationSeconds = 30;
+        int size = 64;
+        String path = "/time";
+
+        /**
+         * Parse the command line arguments
+         *
+         * @param args command line arguments
+         * @return parsed {@link Settings}
+         */
+        public static Settings parse(String[] args) {
+            final Settings settings = new Settings();
+            boolean portSet = false;
+
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                final String value = args[++i];
+
+                if ("--mode".equals(arg)) {
+                    if ("http".equals(value)) {
+                        settings.http = true;
+                    } else if (!"echo".equals(value)) {
+                        throw new IllegalArgumentException("Unknown mode " + value);
+                    }
+                } else if ("--host".equals(arg)) {
+                    settings.host = value;
+                } else if ("--port".equals(arg)) {
+                    settings.port = Integer.parseInt(value);
+                    portSet = true;
+                } else if ("--connections".equals(arg)) {
+                    settings.connections = Integer.parseInt(value);
+                } else if ("--rate".equals(arg)) {
+                    settings.rate = Integer.parseInt(value);
+                } else if ("--duration".equals(arg)) {
+                    settings.durationSeconds = Integer.parseInt(value);
+                } else if ("--size".equals(arg)) {
+                    settings.size = Integer.parseInt(value);
+                } else if ("--path".equals(arg)) {
+                    settings.path = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+
+            if (settings.http && !portSet) {
+                // HttpServer.createSimpleServer() default port
+                settings.port = 8080;
+            }
+            if (settings.connections <= 0 || settings.rate <= 0 || settings.durationSeconds <= 0) {
+                throw new IllegalArgumentException("connections, rate and duration must be positive");
+            }
+
+            return settings;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.egreen.teslar.core.client;
+
+import org.egreen.teslar.core.server.filter.FrameCodecFilter;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.impl.FutureImpl;
+import org.glassfish.grizzly.impl.SafeFutureImpl;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Request/response client, which keeps many requests in flight on a single
+ * connection.
+ * <p/>
+ * Every request is sent as one {@link FrameCodecFilter} frame, which starts
+ * with an 8 byte correlation ID followed by the request body. The peer has to
+ * return the ID in front of the response body (the
+ * {@link org.egreen.teslar.core.server.filter.TeslarFilter} echo service does
+ * so by definition). Responses may arrive in any order, each one completes the
+ * {@link Future} of the request with the same ID.
+ */
+public class PipelinedClient {
+    private static final Logger logger = Grizzly.logger(PipelinedClient.class);
+
+    // size of the correlation ID, which prefixes every frame
+    private static final int ID_SIZE = 8;
+
+    private final TCPNIOTransport transport;
+    private final Connection connection;
+    private final MemoryManager memoryManager;
+
+    // caps the number of outstanding requests
+    private final Semaphore outstanding;
+    private final Map<Long, FutureImpl<Buffer>> pending =
+            new ConcurrentHashMap<Long, FutureImpl<Buffer>>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private PipelinedClient(TCPNIOTransport transport, Connection connection,
+                            int maxOutstanding) {
+        this.transport = transport;
+        this.connection = connection;
+        this.memoryManager = transport.getMemoryManager();
+        this.outstanding = new Semaphore(maxOutstanding);
+    }
+
+    /**
+     * Connect a new client
+     *
+     * @param host           server host
+     * @param port           server port
+     * @param maxOutstanding max. number of requests in flight
+     * @return connected {@link PipelinedClient}
+     * @throws IOException
+     */
+    public static PipelinedClient connect(String host, int port, int maxOutstanding)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("maxOutstanding must be positive");
+        }
+
+        final ResponseFilter responseFilter = new ResponseFilter();
+
+        final FilterChainBuilder filterChainBuilder = FilterChainBuilder.stateless();
+        filterChainBuilder.add(new TransportFilter());
+        filterChainBuilder.add(new FrameCodecFilter());
+        filterChainBuilder.add(responseFilter);
+
+        final TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setProcessor(filterChainBuilder.build());
+
+        try {
+            transport.start();
+            final Connection connection = transport.connect(host, port).get(10, TimeUnit.SECONDS);
+
+            final PipelinedClient client = new PipelinedClient(transport, connection, maxOutstanding);
+            responseFilter.client = client;
+            return client;
+        } catch (IOException e) {
+            transport.shutdownNow();
+            throw e;
+        } catch (ExecutionException e) {
+            transport.shutdownNow();
+            throw e;
+        } catch (TimeoutException e) {
+            transport.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request. Blocks while the max. number of requests are in flight.
+     *
+     * @param body request body
+     * @return {@link Future} of the response body
+     * @throws InterruptedException
+     */
+    public Future<Buffer> send(byte[] body) throws InterruptedException {
+        return send(Buffers.wrap(memoryManager, body));
+    }
+
+    /**
+     * Send a request. Blocks while the max. number of requests are in flight.
+     *
+     * @param body request body
+     * @return {@link Future} of the response body
+     * @throws InterruptedException
+     */
+    public Future<Buffer> send(Buffer body) throws InterruptedException {
+        outstanding.acquire();
+        return doSend(body);
+    }
+
+    /**
+     * Send a request, waiting up to <tt>timeout</tt> for a free slot.
+     *
+     * @param body    request body
+     * @param timeout max. time to wait for a free slot
+     * @param unit    <tt>timeout</tt> unit
+     * @return {@link Future} of the response body
+     * @throws TimeoutException if no slot became free in time
+     * @throws InterruptedException
+     */
+    public Future<Buffer> send(Buffer body, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!outstanding.tryAcquire(timeout, unit)) {
+            throw new TimeoutException("Too many outstanding requests");
+        }
+        return doSend(body);
+    }
+
+    /**
+     * @return number of requests in flight
+     */
+    public int getOutstandingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Close the connection, the outstanding requests fail.
+     */
+    public void close() {
+        closed = true;
+        try {
+            connection.closeSilently();
+        } finally {
+            failAll();
+            try {
+                transport.shutdownNow();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to shut down the transport", e);
+            }
+        }
+    }
+
+    private Future<Buffer> doSend(Buffer body) {
+        final long id = nextId.getAndIncrement();
+        final FutureImpl<Buffer> future = SafeFutureImpl.create();
+
+        // register first, so close() either fails this future or we see closed
+        pending.put(id, future);
+        if (closed) {
+            fail(id, new IOException("Connection was closed"));
+            return future;
+        }
+
+        final Buffer header = memoryManager.allocate(ID_SIZE);
+        header.putLong(id);
+        header.flip();
+
+        connection.write(Buffers.appendBuffers(memoryManager, header, body),
+                new EmptyCompletionHandler<WriteResult<Buffer, SocketAddress>>() {
+                    @Override
+                    public void failed(Throwable throwable) {
+                        fail(id, throwable);
+                    }
+                });
+
+        return future;
+    }
+
+    private void complete(long id, Buffer response) {
+        final FutureImpl<Buffer> future = pending.remove(id);
+        if (future == null) {
+            logger.log(Level.FINE, "Response to unknown request #{0}", id);
+            return;
+        }
+
+        outstanding.release();
+        future.result(response);
+    }
+
+    private void fail(long id, Throwable cause) {
+        final FutureImpl<Buffer> future = pending.remove(id);
+        if (future != null) {
+            outstanding.release();
+            future.failure(cause);
+        }
+    }
+
+    private void failAll() {
+        final Iterator<Map.Entry<Long, FutureImpl<Buffer>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Long, FutureImpl<Buffer>> entry = it.next();
+            it.remove();
+            outstanding.release();
+            //noinspection ThrowableInstanceNeverThrown
+            entry.getValue().failure(new IOException("Connection was closed"));
+        }
+    }
+
+    /**
+     * Filter, which completes the pending requests with the incoming frames.
+     */
+    private static class ResponseFilter extends BaseFilter {
+        private volatile PipelinedClient client;
+
+        @Override
+        public NextAction handleRead(FilterChainContext ctx) throws IOException {
+            final Buffer frame = ctx.getMessage();
+            if (frame.remaining() < ID_SIZE) {
+                logger.log(Level.WARNING, "Frame without correlation ID, closing {0}", ctx.getConnection());
+                ctx.getConnection().closeSilently();
+                return ctx.getStopAction();
+            }
+
+            final long id = frame.getLong();
+            client.complete(id, frame);
+
+            return ctx.getStopAction();
+        }
+
+        @Override
+        public NextAction handleClose(FilterChainContext ctx) throws IOException {
+            final PipelinedClient localClient = client;
+            if (localClient != null) {
+                localClient.closed = true;
+                localClient.failAll();
+            }
+            return ctx.getStopAction();
+        }
+    }
+}
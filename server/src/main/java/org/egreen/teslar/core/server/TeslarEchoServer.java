@@ -1,7 +1,17 @@
 package org.egreen.teslar.core.server;
 
+import org.egreen.teslar.core.server.filter.DatagramBatchFilter;
+import org.egreen.teslar.core.server.filter.FrameCodecFilter;
+import org.egreen.teslar.core.server.filter.TeslarFilter;
 import org.egreen.teslar.core.server.handler.StaticFileHandler;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.TransportFilter;
 import org.glassfish.grizzly.http.server.*;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.nio.transport.UDPNIOTransport;
+import org.glassfish.grizzly.nio.transport.UDPNIOTransportBuilder;
+import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -39,13 +49,60 @@ public class TeslarEchoServer {
         staticFileHandler.setFileCacheEnabled(false);
         logger.info(staticFileHandler.getDefaultDocRoot().getAbsolutePath());
         server.getServerConfiguration().addHttpHandler(staticFileHandler, "/file/*");
+
+        final TCPNIOTransport echoTransport = createEchoTransport();
+        final UDPNIOTransport datagramTransport = createDatagramTransport();
         try {
             server.start();
+            echoTransport.bind(HOST, PORT);
+            echoTransport.start();
+            datagramTransport.bind(HOST, PORT);
+            datagramTransport.start();
             System.out.println("Press any key to stop the server...");
             System.in.read();
         } catch (Exception e) {
             System.err.println(e);
+        } finally {
+            datagramTransport.shutdownNow();
+            echoTransport.shutdownNow();
+            server.shutdownNow();
         }
 
     }
+
+    /**
+     * Create the TCP transport of the echo service, which is served by
+     * {@link TeslarFilter}
+     *
+     * @return unbound echo {@link TCPNIOTransport}
+     */
+    public static TCPNIOTransport createEchoTransport() {
+        FilterChainBuilder filterChainBuilder = FilterChainBuilder.stateless();
+        filterChainBuilder.add(new TransportFilter());
+        filterChainBuilder.add(new FrameCodecFilter());
+        filterChainBuilder.add(new TeslarFilter());
+
+        final TCPNIOTransport transport = TCPNIOTransportBuilder.newInstance().build();
+        transport.setProcessor(filterChainBuilder.build());
+        return transport;
+    }
+
+    /**
+     * Create the UDP transport of the echo service. Datagrams are processed
+     * in batches on the selector thread, see {@link DatagramBatchFilter}
+     *
+     * @return unbound echo {@link UDPNIOTransport}
+     */
+    public static UDPNIOTransport createDatagramTransport() {
+        FilterChainBuilder filterChainBuilder = FilterChainBuilder.stateless();
+        filterChainBuilder.add(new TransportFilter());
+        filterChainBuilder.add(new DatagramBatchFilter());
+        filterChainBuilder.add(new TeslarFilter());
+
+        final UDPNIOTransport transport = UDPNIOTransportBuilder.newInstance()
+                .setIOStrategy(SameThreadIOStrategy.getInstance())
+                .build();
+        transport.setProcessor(filterChainBuilder.build());
+        return transport;
+    }
 }
@@ -1,6 +1,6 @@
 package org.egreen.teslar.core.server.filter;
 
-
+import org.egreen.teslar.core.server.throttle.BandwidthScheduler;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.filterchain.BaseFilter;
@@ -38,6 +38,13 @@ public class ClientDownloadFilter extends BaseFilter {
 
     private final String resourcePath;
 
+    // shared bandwidth scheduler, or null if the download is not throttled
+    private final BandwidthScheduler scheduler;
+    // relative share of the aggregate bandwidth
+    private final int weight;
+    // scheduler ticket, registered once the connection is established
+    private volatile BandwidthScheduler.Ticket ticket;
+
     /**
      * <tt>ClientDownloadFilter</tt> constructor
      *
@@ -45,7 +52,24 @@ public class ClientDownloadFilter extends BaseFilter {
      * @param completeFuture download completion handler ({@link FutureImpl})
      */
     public ClientDownloadFilter(URI uri, FutureImpl<String> completeFuture) {
+        this(uri, completeFuture, null, 1);
+    }
+
+    /**
+     * <tt>ClientDownloadFilter</tt> constructor for a download, which shares
+     * bandwidth with other downloads via {@link BandwidthScheduler}
+     *
+     * @param uri            {@link URI} of a remote resource to download
+     * @param completeFuture download completion handler ({@link FutureImpl})
+     * @param scheduler      shared {@link BandwidthScheduler}, or <tt>null</tt>
+     *                       if the download shouldn't be throttled
+     * @param weight         relative share of the aggregate bandwidth
+     */
+    public ClientDownloadFilter(URI uri, FutureImpl<String> completeFuture,
+                                BandwidthScheduler scheduler, int weight) {
         this.uri = uri;
+        this.scheduler = scheduler;
+        this.weight = weight;
 
         // Extracting resource path
         resourcePath =
@@ -83,6 +107,10 @@ public class ClientDownloadFilter extends BaseFilter {
                 .header("Host", uri.getHost()).build();
         logger.log(Level.INFO, "Connected... Sending the request: {0}", httpRequest);
 
+        if (scheduler != null) {
+            ticket = scheduler.register(BandwidthScheduler.Priority.BULK, weight);
+        }
+
         // Write the request asynchronously
         ctx.write(httpRequest);
 
@@ -94,13 +122,16 @@ public class ClientDownloadFilter extends BaseFilter {
     /**
      * The method is called, when we receive a {@link HttpContent} from a server.
      * Once we receive one - we save the content chunk to a local file.
+     * If the download is over its bandwidth budget, the read processing is
+     * suspended, so no more data is consumed from the transport until the
+     * {@link BandwidthScheduler} grants new credit.
      *
      * @param ctx Request processing context
      * @return {@link NextAction}
      * @throws IOException
      */
     @Override
-    public NextAction handleRead(FilterChainContext ctx) throws IOException {
+    public NextAction handleRead(final FilterChainContext ctx) throws IOException {
         try {
             // Cast message to a HttpContent
             final HttpContent httpContent = (HttpContent) ctx.getMessage();
@@ -118,8 +149,9 @@ public class ClientDownloadFilter extends BaseFilter {
             final Buffer buffer = httpContent.getContent();
 
             logger.log(Level.FINE, "HTTP content size: {0}", buffer.remaining());
-            if (buffer.remaining() > 0) {
-                bytesDownloaded += buffer.remaining();
+            final int chunkSize = buffer.remaining();
+            if (chunkSize > 0) {
+                bytesDownloaded += chunkSize;
 
                 // save Buffer to a local file, represented by FileChannel
                 ByteBuffer byteBuffer = buffer.toByteBuffer();
@@ -137,6 +169,23 @@ public class ClientDownloadFilter extends BaseFilter {
                 logger.log(Level.FINE, "Downloaded done: {0} bytes", bytesDownloaded);
                 completeFuture.result(fileName);
                 close();
+            } else if (chunkSize > 0) {
+                final BandwidthScheduler.Ticket localTicket = ticket;
+                if (localTicket != null && !localTicket.consume(chunkSize)) {
+                    // over budget - suspend the read processing. While the
+                    // context is suspended, the connection doesn't consume
+                    // data from the transport.
+                    ctx.suspend();
+                    final NextAction suspendAction = ctx.getSuspendAction();
+
+                    localTicket.pause(new Runnable() {
+                        public void run() {
+                            ctx.resume(ctx.getStopAction());
+                        }
+                    });
+
+                    return suspendAction;
+                }
             }
         } catch (IOException e) {
             close();
@@ -169,6 +218,11 @@ public class ClientDownloadFilter extends BaseFilter {
      * @throws IOException If failed to close <em>localOutput</em>.
      */
     private void close() throws IOException {
+        final BandwidthScheduler.Ticket localTicket = this.ticket;
+        if (localTicket != null) {
+            localTicket.release();
+        }
+
         final FileChannel localOutput = this.output;
         // close the local file channel
         if (localOutput != null) {
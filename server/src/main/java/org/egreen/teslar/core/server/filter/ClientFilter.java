@@ -1,10 +1,12 @@
 package org.egreen.teslar.core.server.filter;
 
+import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.filterchain.BaseFilter;
 import org.glassfish.grizzly.filterchain.FilterChainContext;
 import org.glassfish.grizzly.filterchain.NextAction;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * Created by dewmal on 11/19/14.
@@ -20,9 +22,9 @@ public class ClientFilter extends BaseFilter {
      */
     @Override
     public NextAction handleRead(final FilterChainContext ctx) throws IOException {
-        // We get String message from the context, because we rely prev. Filter in chain is StringFilter
-        final String serverResponse = ctx.getMessage();
-        System.out.println("Server echo: " + serverResponse);
+        // We get Buffer frame from the context, because we rely prev. Filter in chain is FrameCodecFilter
+        final Buffer serverResponse = ctx.getMessage();
+        System.out.println("Server echo: " + serverResponse.toStringContent(Charset.forName("UTF-8")));
 
         return ctx.getStopAction();
     }
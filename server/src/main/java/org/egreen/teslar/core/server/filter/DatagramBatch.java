@@ -0,0 +1,73 @@
+package org.egreen.teslar.core.server.filter;
+
+import org.glassfish.grizzly.Buffer;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Datagrams read by {@link DatagramBatchFilter} during one selector wakeup.
+ * The batch is passed downstream as a single message.
+ */
+public class DatagramBatch implements Iterable<DatagramBatch.Datagram> {
+    private final List<Datagram> datagrams;
+
+    DatagramBatch(int capacity) {
+        datagrams = new ArrayList<Datagram>(capacity);
+    }
+
+    void add(SocketAddress address, Buffer payload) {
+        datagrams.add(new Datagram(address, payload));
+    }
+
+    /**
+     * @return number of datagrams in the batch
+     */
+    public int size() {
+        return datagrams.size();
+    }
+
+    /**
+     * @param index datagram index
+     * @return the datagram at the <tt>index</tt>
+     */
+    public Datagram get(int index) {
+        return datagrams.get(index);
+    }
+
+    public Iterator<Datagram> iterator() {
+        return datagrams.iterator();
+    }
+
+    /**
+     * Single datagram: payload and peer address.
+     */
+    public static class Datagram {
+        private final SocketAddress address;
+        private final Buffer payload;
+
+        Datagram(SocketAddress address, Buffer payload) {
+            this.address = address;
+            this.payload = payload;
+        }
+
+        /**
+         * @return address of the peer, which has sent the datagram
+         */
+        public SocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * The payload is only valid while the batch is being processed, its
+         * memory is reused for the following batches.
+         *
+         * @return datagram payload
+         */
+        public Buffer getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.egreen.teslar.core.server.filter;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.nio.NIOConnection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Filter, which batches datagram processing on a non-connected UDP
+ * {@link Connection}.
+ * <p/>
+ * When the transport delivers a datagram, the filter drains the datagrams,
+ * which are already queued on the socket, into pooled receive buffers and
+ * passes them downstream as one {@link DatagramBatch}. Responses written
+ * while the batch is processed are collected and sent back-to-back once the
+ * processing has completed.
+ * <p/>
+ * The filter is meant to be used with a <tt>SameThreadIOStrategy</tt>: the
+ * batch state is kept per thread.
+ */
+public class DatagramBatchFilter extends BaseFilter {
+    private static final Logger logger = Grizzly.logger(DatagramBatchFilter.class);
+
+    /**
+     * Default max. number of datagrams processed per selector wakeup
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+    /**
+     * Default size of a pooled receive buffer. Longer datagrams are truncated.
+     */
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 8192;
+
+    private final int maxBatchSize;
+    private final int receiveBufferSize;
+
+    private final ThreadLocal<BatchState> state = new ThreadLocal<BatchState>() {
+        @Override
+        protected BatchState initialValue() {
+            return new BatchState(maxBatchSize, receiveBufferSize);
+        }
+    };
+
+    private final FilterChainContext.CompletionListener flushListener =
+            new FilterChainContext.CompletionListener() {
+                public void onComplete(FilterChainContext context) {
+                    flush(context.getConnection());
+                }
+            };
+
+    /**
+     * Construct a filter with the default batch and receive buffer sizes
+     */
+    public DatagramBatchFilter() {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_RECEIVE_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a filter
+     *
+     * @param maxBatchSize      max. number of datagrams processed per selector wakeup
+     * @param receiveBufferSize size of a pooled receive buffer
+     */
+    public DatagramBatchFilter(int maxBatchSize, int receiveBufferSize) {
+        if (maxBatchSize <= 0 || receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize and receiveBufferSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Collect the datagram read by the transport and the datagrams queued
+     * behind it into a {@link DatagramBatch}.
+     *
+     * @param ctx Context of {@link FilterChainContext} processing
+     * @return the next action
+     * @throws IOException
+     */
+    @Override
+    public NextAction handleRead(FilterChainContext ctx) throws IOException {
+        final Connection connection = ctx.getConnection();
+        final MemoryManager memoryManager = connection.getTransport().getMemoryManager();
+        final BatchState batchState = state.get();
+
+        final DatagramBatch batch = new DatagramBatch(maxBatchSize);
+        batch.add((SocketAddress) ctx.getAddress(), (Buffer) ctx.getMessage());
+
+        final DatagramChannel channel =
+                (DatagramChannel) ((NIOConnection) connection).getChannel();
+        while (batch.size() < maxBatchSize) {
+            final ByteBuffer receiveBuffer = batchState.receiveBuffers[batch.size() - 1];
+            receiveBuffer.clear();
+
+            final SocketAddress address = channel.receive(receiveBuffer);
+            if (address == null) {
+                // nothing queued on the socket any more
+                break;
+            }
+
+            receiveBuffer.flip();
+            batch.add(address, Buffers.wrap(memoryManager, receiveBuffer));
+        }
+
+        batchState.responses.clear();
+        batchState.batching = true;
+        ctx.addCompletionListener(flushListener);
+
+        ctx.setMessage(batch);
+        return ctx.getInvokeAction();
+    }
+
+    /**
+     * While a batch is processed, collect the responses instead of writing
+     * them one by one.
+     *
+     * @param ctx Context of {@link FilterChainContext} processing
+     * @return the next action
+     * @throws IOException
+     */
+    @Override
+    public NextAction handleWrite(FilterChainContext ctx) throws IOException {
+        final BatchState batchState = state.get();
+        if (!batchState.batching) {
+            return ctx.getInvokeAction();
+        }
+
+        batchState.responses.add(new DatagramBatch.Datagram(
+                (SocketAddress) ctx.getAddress(), (Buffer) ctx.getMessage()));
+        return ctx.getStopAction();
+    }
+
+    /**
+     * Send the collected responses. If the socket send buffer fills up, the
+     * rest is copied out of the pooled buffers and handed over to the
+     * asynchronous write queue.
+     */
+    private void flush(Connection connection) {
+        final BatchState batchState = state.get();
+        batchState.batching = false;
+
+        final List<DatagramBatch.Datagram> responses = batchState.responses;
+        if (responses.isEmpty()) {
+            return;
+        }
+
+        final DatagramChannel channel =
+                (DatagramChannel) ((NIOConnection) connection).getChannel();
+        final MemoryManager memoryManager = connection.getTransport().getMemoryManager();
+
+        int i = 0;
+        try {
+            for (; i < responses.size(); i++) {
+                final DatagramBatch.Datagram response = responses.get(i);
+                if (channel.send(response.getPayload().toByteBuffer(), response.getAddress()) == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to send a datagram", e);
+            i++;
+        }
+
+        for (; i < responses.size(); i++) {
+            final DatagramBatch.Datagram response = responses.get(i);
+            final Buffer payload = response.getPayload();
+            final Buffer copy = memoryManager.allocate(payload.remaining());
+            copy.put(payload);
+            copy.flip();
+
+            //noinspection unchecked
+            connection.write(response.getAddress(), copy, null);
+        }
+
+        responses.clear();
+    }
+
+    /**
+     * Per thread receive buffer pool and pending responses.
+     */
+    private static class BatchState {
+        final ByteBuffer[] receiveBuffers;
+        final List<DatagramBatch.Datagram> responses;
+        boolean batching;
+
+        BatchState(int maxBatchSize, int receiveBufferSize) {
+            // the first datagram of a batch is read by the transport itself
+            receiveBuffers = new ByteBuffer[maxBatchSize - 1];
+            for (int i = 0; i < receiveBuffers.length; i++) {
+                receiveBuffers[i] = ByteBuffer.allocateDirect(receiveBufferSize);
+            }
+            responses = new ArrayList<DatagramBatch.Datagram>(maxBatchSize);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.egreen.teslar.core.server.filter;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary framing filter. Every frame is prefixed with its length encoded as
+ * an unsigned varint (7 bits per byte, least significant group first).
+ * <p/>
+ * On read the filter passes each complete frame downstream as a {@link Buffer}
+ * slice of the incoming data, without copying it. On write a {@link Buffer}
+ * (or <tt>byte[]</tt>) message gets the length header prepended as a separate
+ * buffer, so the transport sends header and payload with one gathering write.
+ */
+public class FrameCodecFilter extends BaseFilter {
+    private static final Logger logger = Grizzly.logger(FrameCodecFilter.class);
+
+    /**
+     * Default max. frame size (1MB)
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+    // max. number of bytes needed to encode an int as varint
+    private static final int MAX_HEADER_SIZE = 5;
+
+    private final int maxFrameSize;
+
+    /**
+     * Construct a codec, which accepts frames up to {@link #DEFAULT_MAX_FRAME_SIZE}
+     */
+    public FrameCodecFilter() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Construct a codec
+     *
+     * @param maxFrameSize max. payload size of a single frame in bytes
+     */
+    public FrameCodecFilter(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize must be positive");
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Decode the next frame from the incoming {@link Buffer}. If the frame is
+     * not complete yet - the data is stored until the next read. If the
+     * incoming {@link Buffer} contains more than one frame - the remainder is
+     * passed back to the chain to be decoded once the first frame has been
+     * processed.
+     *
+     * @param ctx Context of {@link FilterChainContext} processing
+     * @return the next action
+     * @throws IOException
+     */
+    @Override
+    public NextAction handleRead(FilterChainContext ctx) throws IOException {
+        final Buffer input = ctx.getMessage();
+        final int limit = input.limit();
+
+        int position = input.position();
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            if (position >= limit) {
+                // header is not complete yet
+                return ctx.getStopAction(input);
+            }
+
+            final byte b = input.get(position++);
+            if (shift == 28 && (b & 0x70) != 0) {
+                // the fifth byte only has room for bits 28 to 31
+                return closeMalformed(ctx, "Frame length header exceeds 32 bits");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+
+            shift += 7;
+            if (shift >= 7 * MAX_HEADER_SIZE) {
+                return closeMalformed(ctx, "Malformed frame length header");
+            }
+        }
+
+        if (length < 0 || length > maxFrameSize) {
+            return closeMalformed(ctx, "Frame of " + (length & 0xFFFFFFFFL)
+                    + " bytes exceeds the max. frame size " + maxFrameSize);
+        }
+
+        final int frameEnd = position + length;
+        if (frameEnd > limit) {
+            // payload is not complete yet
+            return ctx.getStopAction(input);
+        }
+
+        // split off the following frames (shares the underlying memory)
+        final Buffer remainder = frameEnd < limit ? input.split(frameEnd) : null;
+
+        // skip the header, the rest of the input is exactly the frame payload
+        input.position(position);
+        ctx.setMessage(input);
+
+        return ctx.getInvokeAction(remainder);
+    }
+
+    /**
+     * Prepend the varint length header to the outgoing message.
+     *
+     * @param ctx Context of {@link FilterChainContext} processing
+     * @return the next action
+     * @throws IOException
+     */
+    @Override
+    public NextAction handleWrite(FilterChainContext ctx) throws IOException {
+        final MemoryManager memoryManager =
+                ctx.getConnection().getTransport().getMemoryManager();
+
+        final Object message = ctx.getMessage();
+        final Buffer payload;
+        if (message instanceof Buffer) {
+            payload = (Buffer) message;
+        } else if (message instanceof byte[]) {
+            payload = Buffers.wrap(memoryManager, (byte[]) message);
+        } else {
+            throw new IllegalStateException("Unexpected message type: " + message.getClass().getName());
+        }
+
+        final int length = payload.remaining();
+        if (length > maxFrameSize) {
+            throw new IOException("Frame of " + length
+                    + " bytes exceeds the max. frame size " + maxFrameSize);
+        }
+
+        final Buffer header = memoryManager.allocate(MAX_HEADER_SIZE);
+        writeVarint(header, length);
+        header.trim();
+
+        // composite buffer - header and payload are written with one gathering write
+        ctx.setMessage(Buffers.appendBuffers(memoryManager, header, payload));
+        return ctx.getInvokeAction();
+    }
+
+    /**
+     * @return max. payload size of a single frame in bytes
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    private static void writeVarint(Buffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static NextAction closeMalformed(FilterChainContext ctx, String reason) {
+        logger.log(Level.WARNING, "{0}, closing {1}", new Object[]{reason, ctx.getConnection()});
+        ctx.getConnection().closeSilently();
+        return ctx.getStopAction();
+    }
+}
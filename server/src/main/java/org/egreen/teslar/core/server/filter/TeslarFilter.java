@@ -13,7 +13,7 @@ public class TeslarFilter extends BaseFilter {
 
     /**
      * Handle just read operation, when some message has come and ready to be
-     * processed.
+     * processed. A {@link DatagramBatch} is echoed datagram by datagram.
      *
      * @param ctx Context of {@link FilterChainContext} processing
      * @return the next action
@@ -27,6 +27,14 @@ public class TeslarFilter extends BaseFilter {
 
         final Object message = ctx.getMessage();
 
+        if (message instanceof DatagramBatch) {
+            // Batch of datagrams, collected by DatagramBatchFilter
+            for (DatagramBatch.Datagram datagram : (DatagramBatch) message) {
+                ctx.write(datagram.getAddress(), datagram.getPayload(), null);
+            }
+            return ctx.getStopAction();
+        }
+
         ctx.write(peerAddress, message, null);
 
         return ctx.getStopAction();
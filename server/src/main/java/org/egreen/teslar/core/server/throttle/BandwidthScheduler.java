@@ -0,0 +1,376 @@
+package org.egreen.teslar.core.server.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token-bucket bandwidth scheduler shared by concurrent transfers.
+ * <p/>
+ * The scheduler refills a global bucket at the configured aggregate rate and
+ * hands the tokens out to the registered {@link Ticket}s. {@link Priority#BULK}
+ * tickets (downloads) receive a share proportional to their weight and have to
+ * pause once their credit is spent. {@link Priority#INTERACTIVE} tickets are
+ * never paused: their traffic is charged against the same bucket, so bulk
+ * transfers back off while the UI is busy.
+ */
+public class BandwidthScheduler {
+    private static final Logger logger = Logger.getLogger(BandwidthScheduler.class.getName());
+
+    /**
+     * Default refill interval in milliseconds
+     */
+    public static final long DEFAULT_TICK_MILLIS = 20;
+
+    /**
+     * Traffic class of a {@link Ticket}.
+     */
+    public enum Priority {
+        /**
+         * UI-facing traffic, never paused
+         */
+        INTERACTIVE,
+        /**
+         * Background transfer, paused when over budget
+         */
+        BULK
+    }
+
+    // aggregate rate cap
+    private final long bytesPerSecond;
+    // max. number of tokens the global bucket (and a single ticket) may hold
+    private final long burstBytes;
+    // refill interval
+    private final long tickMillis;
+
+    // registered tickets, guarded by "this"
+    private final List<Ticket> tickets = new ArrayList<Ticket>();
+
+    // global bucket, negative while interactive traffic is in debt
+    private long tokens;
+    private long lastRefillNanos;
+    // ticket, which gets the first byte of the next rounding remainder
+    private int nextRemainder;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Construct a scheduler, which refills every {@link #DEFAULT_TICK_MILLIS} ms
+     *
+     * @param bytesPerSecond aggregate rate cap for all registered transfers
+     */
+    public BandwidthScheduler(long bytesPerSecond) {
+        this(bytesPerSecond, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Construct a scheduler
+     *
+     * @param bytesPerSecond aggregate rate cap for all registered transfers
+     * @param tickMillis     refill interval in milliseconds
+     */
+    public BandwidthScheduler(long bytesPerSecond, long tickMillis) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+
+        this.bytesPerSecond = bytesPerSecond;
+        this.tickMillis = tickMillis;
+        // allow up to 4 ticks worth of data to be sent in one go
+        this.burstBytes = Math.max(1, bytesPerSecond * tickMillis * 4 / 1000);
+    }
+
+    /**
+     * Register a new transfer with the scheduler.
+     *
+     * @param priority traffic class
+     * @param weight   relative share among {@link Priority#BULK} tickets
+     * @return the {@link Ticket} the transfer has to report its traffic to
+     */
+    public synchronized Ticket register(Priority priority, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+
+        final Ticket ticket = new Ticket(priority, weight);
+        tickets.add(ticket);
+
+        if (timer == null) {
+            startTimer();
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Stop the refill timer. Paused tickets are resumed, so no transfer is
+     * left hanging.
+     */
+    public void shutdown() {
+        final List<Runnable> resumeTasks = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+
+            for (Ticket ticket : tickets) {
+                if (ticket.resumeTask != null) {
+                    resumeTasks.add(ticket.resumeTask);
+                    ticket.resumeTask = null;
+                }
+            }
+            tickets.clear();
+        }
+
+        runAll(resumeTasks);
+    }
+
+    /**
+     * @return aggregate rate cap in bytes per second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    private void startTimer() {
+        lastRefillNanos = System.nanoTime();
+        tokens = burstBytes;
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "BandwidthScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    refill();
+                } catch (Throwable t) {
+                    logger.log(Level.WARNING, "Bandwidth refill failed", t);
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refill the global bucket and distribute the tokens between the hungry
+     * {@link Priority#BULK} tickets according to their weights.
+     */
+    private void refill() {
+        final List<Runnable> resumeTasks = new ArrayList<Runnable>();
+
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long elapsedNanos = now - lastRefillNanos;
+            lastRefillNanos = now;
+
+            tokens = Math.min(burstBytes,
+                    tokens + bytesPerSecond * elapsedNanos / TimeUnit.SECONDS.toNanos(1));
+
+            if (tokens > 0) {
+                long totalWeight = 0;
+                for (Ticket ticket : tickets) {
+                    if (ticket.isHungry()) {
+                        totalWeight += ticket.weight;
+                    }
+                }
+
+                if (totalWeight > 0) {
+                    final long available = tokens;
+                    long remainder = available;
+                    for (Ticket ticket : tickets) {
+                        if (ticket.isHungry()) {
+                            final long share = available * ticket.weight / totalWeight;
+                            remainder -= share;
+                            grant(ticket, share);
+                        }
+                    }
+
+                    // the rounded down shares leave less than one byte per
+                    // hungry ticket; hand it out round-robin, so tiny shares
+                    // still make progress without overdrawing the bucket
+                    final int count = tickets.size();
+                    for (int i = 0; i < count && remainder > 0; i++) {
+                        final Ticket ticket = tickets.get((nextRemainder + i) % count);
+                        if (ticket.isHungry()) {
+                            remainder -= grant(ticket, 1);
+                        }
+                    }
+                    nextRemainder = (nextRemainder + 1) % count;
+                }
+            }
+
+            for (Ticket ticket : tickets) {
+                if (ticket.resumeTask != null && ticket.credit > 0) {
+                    resumeTasks.add(ticket.resumeTask);
+                    ticket.resumeTask = null;
+                }
+            }
+        }
+
+        runAll(resumeTasks);
+    }
+
+    /**
+     * Move up to <tt>share</tt> tokens from the global bucket to the ticket,
+     * without exceeding its burst.
+     *
+     * @return number of tokens granted
+     */
+    private long grant(Ticket ticket, long share) {
+        final long granted = Math.min(share, burstBytes - ticket.credit);
+        ticket.credit += granted;
+        tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * Run a resume task on the timer thread, or on a new thread once the
+     * scheduler is shut down. Has to be called holding the lock.
+     */
+    private void resumeLater(final Runnable resumeTask) {
+        final Runnable task = new Runnable() {
+            public void run() {
+                resume(resumeTask);
+            }
+        };
+
+        if (timer != null) {
+            timer.execute(task);
+        } else {
+            final Thread thread = new Thread(task, "BandwidthScheduler-resume");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            resume(task);
+        }
+    }
+
+    private static void resume(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "Failed to resume transfer", t);
+        }
+    }
+
+    /**
+     * Per-transfer handle, which is used to report consumed bytes and to park
+     * the transfer, when it runs over budget.
+     */
+    public class Ticket {
+        private final Priority priority;
+        private final int weight;
+
+        // tokens granted to this ticket, guarded by the scheduler
+        private long credit;
+        // task to be run, once the ticket gets credit again
+        private Runnable resumeTask;
+        private boolean released;
+
+        private Ticket(Priority priority, int weight) {
+            this.priority = priority;
+            this.weight = weight;
+        }
+
+        /**
+         * Account <tt>bytes</tt> consumed by the transfer.
+         *
+         * @param bytes number of bytes read from the transport
+         * @return <tt>true</tt>, if the transfer may keep reading, or
+         * <tt>false</tt> if it has to {@link #pause(Runnable)}
+         */
+        public boolean consume(int bytes) {
+            synchronized (BandwidthScheduler.this) {
+                if (priority == Priority.INTERACTIVE) {
+                    tokens -= bytes;
+                    return true;
+                }
+
+                credit -= bytes;
+                return credit > 0 || released;
+            }
+        }
+
+        /**
+         * Park the transfer until the scheduler grants new credit. If credit
+         * is already available the task is run right away, but on the
+         * scheduler's thread: the caller may not have returned its suspend
+         * action yet, so the task is never run from within this call.
+         *
+         * @param resumeTask task, which resumes reading from the transport
+         */
+        public void pause(Runnable resumeTask) {
+            synchronized (BandwidthScheduler.this) {
+                if (credit <= 0 && !released) {
+                    this.resumeTask = resumeTask;
+                    return;
+                }
+
+                resumeLater(resumeTask);
+            }
+        }
+
+        /**
+         * Unregister the ticket. A pending resume task is run, so the
+         * transfer is able to complete.
+         */
+        public void release() {
+            final Runnable task;
+            synchronized (BandwidthScheduler.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                tickets.remove(this);
+
+                // return the unused credit to the bucket
+                if (credit > 0) {
+                    tokens = Math.min(burstBytes, tokens + credit);
+                    credit = 0;
+                }
+
+                task = resumeTask;
+                resumeTask = null;
+            }
+
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        /**
+         * @return traffic class of the ticket
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return relative weight of the ticket
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        private boolean isHungry() {
+            return priority == Priority.BULK && credit < burstBytes;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Calls Java methods registered with BridgeRpcRouter:
+ *
+ *   bridge.call('binding.reverse', ['text']).then(function (result) { ... });
+ *
+ * All calls made in the same tick are sent as one batched cefQuery, so a
+ * screen issuing many small calls pays for one IPC round trip. Binary data
+ * is passed as bridge.bytes(uint8Array) and returned as Uint8Array.
+ *
+ * Java pushes events with EventStreamRouter:
+ *
+ *   var unsubscribe = bridge.subscribe('download.progress', function (events, dropped) { ... });
+ *
+ * Large binary results are registered with BinaryTransferRegistry on the
+ * Java side, which returns a transfer:// URL to fetch them once:
+ *
+ *   bridge.call('image.get').then(bridge.fetchTransfer).then(function (arrayBuffer) { ... });
+ */
+(function (window) {
+    'use strict';
+
+    var PREFIX = 'rpc:';
+    var SUBSCRIBE_PREFIX = 'sub:';
+    var BASE64_KEY = '$b64';
+    // BridgeRpcRouter.MAX_BATCH
+    var MAX_BATCH = 1000;
+
+    var queue = [];
+    var scheduled = false;
+
+    function BridgeError(code, message) {
+        this.name = 'BridgeError';
+        this.code = code;
+        this.message = message;
+    }
+    BridgeError.prototype = Object.create(Error.prototype);
+
+    function revive(key, value) {
+        if (value !== null && typeof value === 'object' && typeof value[BASE64_KEY] === 'string') {
+            var binary = window.atob(value[BASE64_KEY]);
+            var bytes = new Uint8Array(binary.length);
+            for (var i = 0; i < binary.length; i++) {
+                bytes[i] = binary.charCodeAt(i);
+            }
+            return bytes;
+        }
+        return value;
+    }
+
+    function send(calls) {
+        var request = [];
+        for (var i = 0; i < calls.length; i++) {
+            request.push(calls[i].params === undefined ? {m: calls[i].method}
+                                                       : {m: calls[i].method, p: calls[i].params});
+        }
+        window.cefQuery({
+            request: PREFIX + JSON.stringify(request),
+            onSuccess: function (response) {
+                var results = JSON.parse(response, revive);
+                for (var i = 0; i < calls.length; i++) {
+                    var result = results[i];
+                    if (result && result.e) {
+                        calls[i].reject(new BridgeError(result.e[0], result.e[1]));
+                    } else {
+                        calls[i].resolve(result ? result.r : undefined);
+                    }
+                }
+            },
+            onFailure: function (code, message) {
+                for (var i = 0; i < calls.length; i++) {
+                    calls[i].reject(new BridgeError(code, message));
+                }
+            }
+        });
+    }
+
+    function flush() {
+        scheduled = false;
+        var calls = queue;
+        queue = [];
+        for (var i = 0; i < calls.length; i += MAX_BATCH) {
+            send(calls.slice(i, i + MAX_BATCH));
+        }
+    }
+
+    window.bridge = {
+        /**
+         * @return a Promise of the method's result
+         */
+        call: function (method, params) {
+            return new Promise(function (resolve, reject) {
+                queue.push({method: method, params: params, resolve: resolve, reject: reject});
+                if (!scheduled) {
+                    scheduled = true;
+                    window.setTimeout(flush, 0);
+                }
+            });
+        },
+
+        /**
+         * Receive the events of a topic, at most once per frame. onEvents
+         * gets the events since the last call and the number of events
+         * dropped because the page didn't keep up.
+         *
+         * @return a function, which ends the subscription
+         */
+        subscribe: function (topic, onEvents, onError) {
+            var queryId = window.cefQuery({
+                request: SUBSCRIBE_PREFIX + topic,
+                persistent: true,
+                onSuccess: function (response) {
+                    var message = JSON.parse(response, revive);
+                    onEvents(message.events, message.dropped);
+                },
+                onFailure: function (code, message) {
+                    if (onError) {
+                        onError(new BridgeError(code, message));
+                    }
+                }
+            });
+            return function () {
+                window.cefQueryCancel(queryId);
+            };
+        },
+
+        /**
+         * Fetch a buffer registered with BinaryTransferRegistry; each URL
+         * can be fetched once.
+         *
+         * @return a Promise of the ArrayBuffer
+         */
+        fetchTransfer: function (url) {
+            return new Promise(function (resolve, reject) {
+                var xhr = new XMLHttpRequest();
+                xhr.open('GET', url);
+                xhr.responseType = 'arraybuffer';
+                xhr.onload = function () {
+                    if (xhr.status === 200) {
+                        resolve(xhr.response);
+                    } else {
+                        reject(new BridgeError(xhr.status, 'Transfer ' + url + ' not found'));
+                    }
+                };
+                xhr.onerror = function () {
+                    reject(new BridgeError(0, 'Transfer ' + url + ' failed'));
+                };
+                xhr.send();
+            });
+        },
+
+        /**
+         * Wrap binary data for a call parameter.
+         */
+        bytes: function (uint8Array) {
+            var binary = '';
+            for (var i = 0; i < uint8Array.length; i++) {
+                binary += String.fromCharCode(uint8Array[i]);
+            }
+            var wrapped = {};
+            wrapped[BASE64_KEY] = window.btoa(binary);
+            return wrapped;
+        },
+
+        BridgeError: BridgeError
+    };
+})(window);